@@ -0,0 +1,13 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+/**
+ * DTO for an ancestor that occurs on both the mother's and the father's side of a pedigree.
+ * The distances are counted in generations from the horse the pedigree belongs to, its parents have distance 1.
+ */
+public record CommonAncestorDto(
+    Long id,
+    String name,
+    int motherSideDistance,
+    int fatherSideDistance
+) {
+}
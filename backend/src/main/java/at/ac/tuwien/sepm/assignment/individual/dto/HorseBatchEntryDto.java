@@ -0,0 +1,30 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+import at.ac.tuwien.sepm.assignment.individual.type.Sex;
+
+import java.time.LocalDate;
+
+/**
+ * DTO for one horse of a batch of horses to create.
+ * Each parent is given either by the ID of an existing horse,
+ * or by the index of another horse in the same batch.
+ *
+ * @param motherId    the ID of the existing mother, if any
+ * @param fatherId    the ID of the existing father, if any
+ * @param motherIndex the index of the mother in the batch, if any
+ * @param fatherIndex the index of the father in the batch, if any
+ * @param externalId  the ID of the horse in the registry it is imported from, if any; unique
+ */
+public record HorseBatchEntryDto(
+    String name,
+    String description,
+    LocalDate dateOfBirth,
+    Sex sex,
+    Long ownerId,
+    Long motherId,
+    Long fatherId,
+    Integer motherIndex,
+    Integer fatherIndex,
+    String externalId
+) {
+}
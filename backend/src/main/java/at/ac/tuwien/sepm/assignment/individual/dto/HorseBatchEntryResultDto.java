@@ -0,0 +1,15 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+import java.util.List;
+
+/**
+ * DTO for the outcome of one horse of a batch, of which only the valid horses are created.
+ *
+ * @param id     the ID of the created horse, {@code null} if it was rejected
+ * @param errors the reasons the horse was rejected, empty if it was created
+ */
+public record HorseBatchEntryResultDto(
+    Long id,
+    List<String> errors
+) {
+}
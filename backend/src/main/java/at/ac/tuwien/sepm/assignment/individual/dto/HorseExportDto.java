@@ -0,0 +1,21 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+import at.ac.tuwien.sepm.assignment.individual.type.Sex;
+
+import java.time.LocalDate;
+
+/**
+ * DTO for one row of an export of all horses.
+ * Owner and parents are referenced by ID only.
+ */
+public record HorseExportDto(
+    Long id,
+    String name,
+    String description,
+    LocalDate dateOfBirth,
+    Sex sex,
+    Long ownerId,
+    Long motherId,
+    Long fatherId
+) {
+}
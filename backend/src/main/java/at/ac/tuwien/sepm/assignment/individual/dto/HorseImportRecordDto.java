@@ -0,0 +1,26 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+import at.ac.tuwien.sepm.assignment.individual.type.Sex;
+
+import java.time.LocalDate;
+
+/**
+ * DTO for one horse of an import, as a line of NDJSON or a row of CSV.
+ * Each parent is referenced either by its external ID, or by its name, which must be unique.
+ * It must be an existing horse, or a horse imported earlier in the same import.
+ *
+ * @param externalId the ID of the horse in the registry it is imported from, if any; unique
+ */
+public record HorseImportRecordDto(
+    String externalId,
+    String name,
+    String description,
+    LocalDate dateOfBirth,
+    Sex sex,
+    Long ownerId,
+    String motherExternalId,
+    String motherName,
+    String fatherExternalId,
+    String fatherName
+) {
+}
@@ -0,0 +1,27 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+import at.ac.tuwien.sepm.assignment.individual.type.ImportState;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * DTO for the progress of an import of horses.
+ *
+ * @param read     the number of records read so far
+ * @param created  the number of horses created so far
+ * @param rejected the number of records rejected so far
+ * @param errors   the errors of the first rejected records, with their record number
+ */
+public record HorseImportStatusDto(
+    long id,
+    String format,
+    ImportState state,
+    long read,
+    long created,
+    long rejected,
+    List<String> errors,
+    LocalDateTime started,
+    LocalDateTime finished
+) {
+}
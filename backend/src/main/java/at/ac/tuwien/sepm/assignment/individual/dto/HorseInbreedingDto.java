@@ -0,0 +1,16 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+import java.util.List;
+
+/**
+ * DTO for the coefficient of inbreeding of a horse, considering its pedigree up to {@code generations} generations.
+ * {@code commonAncestors} are the horses found on both the mother's and the father's side of that pedigree,
+ * which are the ones contributing to the coefficient.
+ */
+public record HorseInbreedingDto(
+    Long id,
+    Long generations,
+    double coefficient,
+    List<CommonAncestorDto> commonAncestors
+) {
+}
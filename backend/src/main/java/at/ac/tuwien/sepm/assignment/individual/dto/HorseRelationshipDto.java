@@ -0,0 +1,16 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+import java.util.List;
+
+/**
+ * DTO for the relationship of two horses.
+ * {@code generations} is the sum of the distances of the closest common ancestors to both horses,
+ * e.g. 2 for full or half siblings, 1 for parent and child; it is null if the horses are not related.
+ */
+public record HorseRelationshipDto(
+    Long id,
+    Long otherId,
+    Integer generations,
+    List<RelationshipAncestorDto> closestCommonAncestors
+) {
+}
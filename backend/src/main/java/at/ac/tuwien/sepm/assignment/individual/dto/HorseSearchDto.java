@@ -7,6 +7,12 @@ import org.springframework.format.annotation.DateTimeFormat;
 /**
  * DTO to bundle the query parameters used in searching horses.
  * Each field can be null, in which case this field is not filtered by.
+ * {@code limit} is the number of suggestions to return for a name.
+ * {@code after} is the keyset cursor for paging through all horses:
+ * the ID of the last horse of the previous page, and {@code pageSize} the number of horses on a page.
+ * All horses are returned at once unless one of them is given.
+ * If {@code fullText} is true, {@code description} is matched word by word against the full-text index
+ * instead of as a substring, and the result is ordered by relevance.
  */
 public record HorseSearchDto(
     String name,
@@ -15,6 +21,9 @@ public record HorseSearchDto(
     LocalDate bornBefore,
     Sex sex,
     String ownerName,
-    Integer limit
+    Integer limit,
+    Long after,
+    Boolean fullText,
+    Integer pageSize
 ) {
 }
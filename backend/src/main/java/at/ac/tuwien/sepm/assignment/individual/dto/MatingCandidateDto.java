@@ -0,0 +1,14 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+import java.time.LocalDate;
+
+/**
+ * DTO for a stallion, together with the coefficient of inbreeding a foal of it and the requested mare would have.
+ */
+public record MatingCandidateDto(
+    Long id,
+    String name,
+    LocalDate dateOfBirth,
+    double offspringInbreeding
+) {
+}
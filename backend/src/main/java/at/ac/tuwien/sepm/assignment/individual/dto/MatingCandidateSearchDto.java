@@ -0,0 +1,16 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+/**
+ * DTO to bundle the parameters of a search for stallions to mate a mare with.
+ * Each field can be null, in which case a default is used.
+ *
+ * @param limit         the maximum number of stallions to return
+ * @param generations   the number of generations of the foal's pedigree to consider, counting the foal itself
+ * @param timeoutMillis the time after which the search stops and returns the best stallions evaluated so far
+ */
+public record MatingCandidateSearchDto(
+    Integer limit,
+    Integer generations,
+    Long timeoutMillis
+) {
+}
@@ -0,0 +1,15 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+import java.util.List;
+
+/**
+ * DTO for the stallions best suited for a mare, lowest offspring inbreeding first.
+ * If the search ran out of time, {@code complete} is false and only {@code evaluated} of all stallions were considered.
+ */
+public record MatingCandidatesDto(
+    Long mareId,
+    boolean complete,
+    int evaluated,
+    List<MatingCandidateDto> candidates
+) {
+}
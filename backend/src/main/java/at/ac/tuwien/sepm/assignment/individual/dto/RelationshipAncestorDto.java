@@ -0,0 +1,13 @@
+package at.ac.tuwien.sepm.assignment.individual.dto;
+
+/**
+ * DTO for a common ancestor of two horses, with its distance in generations from each of them.
+ * A horse that is an ancestor of the other one is their common ancestor with distance 0 from itself.
+ */
+public record RelationshipAncestorDto(
+    Long id,
+    String name,
+    int distance,
+    int otherDistance
+) {
+}
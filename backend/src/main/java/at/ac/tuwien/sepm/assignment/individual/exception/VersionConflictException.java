@@ -0,0 +1,14 @@
+package at.ac.tuwien.sepm.assignment.individual.exception;
+
+import java.util.List;
+
+/**
+ * Exception that signals, that data was changed based on an outdated version of it,
+ * because someone else changed it in the meantime.
+ * Unlike other conflicts, retrying with the current version may succeed.
+ */
+public class VersionConflictException extends ConflictException {
+  public VersionConflictException(String messageSummary, List<String> errors) {
+    super(messageSummary, errors);
+  }
+}
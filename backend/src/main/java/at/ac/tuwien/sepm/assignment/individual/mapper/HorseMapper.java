@@ -1,6 +1,7 @@
 package at.ac.tuwien.sepm.assignment.individual.mapper;
 
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseExportDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseFamilyTreeDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseListDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.OwnerDto;
@@ -44,6 +45,29 @@ public class HorseMapper {
     );
   }
 
+  /**
+   * Convert a horse entity object, whose owner has already been resolved, to a {@link HorseListDto}.
+   *
+   * @param horse the horse to convert
+   * @param owner the owner referenced by {@code horse}, or {@code null} if it has none
+   * @return the converted {@link HorseListDto}
+   */
+  public HorseListDto entityToListDto(Horse horse, OwnerDto owner) {
+    LOG.trace("entityToDto({})", horse);
+    if (horse == null) {
+      return null;
+    }
+
+    return new HorseListDto(
+        horse.getId(),
+        horse.getName(),
+        horse.getDescription(),
+        horse.getDateOfBirth(),
+        horse.getSex(),
+        owner
+    );
+  }
+
   /**
    * Convert a horse entity object to a {@link HorseListDto}.
    * The given map of owners needs to contain the owner of {@code horse}.
@@ -92,6 +116,26 @@ public class HorseMapper {
     );
   }
 
+  /**
+   * Convert a horse entity object to a {@link HorseExportDto}.
+   * Not traced, as it is called for every row of an export.
+   *
+   * @param horse the horse to convert
+   * @return the converted {@link HorseExportDto}
+   */
+  public HorseExportDto entityToExportDto(Horse horse) {
+    return new HorseExportDto(
+        horse.getId(),
+        horse.getName(),
+        horse.getDescription(),
+        horse.getDateOfBirth(),
+        horse.getSex(),
+        horse.getOwnerId(),
+        horse.getMotherId(),
+        horse.getFatherId()
+    );
+  }
+
   private OwnerDto getOwner(Horse horse, Map<Long, OwnerDto> owners) {
     LOG.trace("getOwner({}), mapper", horse);
     OwnerDto owner = null;
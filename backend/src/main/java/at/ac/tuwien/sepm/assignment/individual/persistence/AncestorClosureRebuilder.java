@@ -0,0 +1,34 @@
+package at.ac.tuwien.sepm.assignment.individual.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Rebuilds the ancestor closure table on startup, if the application is started with {@code --rebuild-ancestor-closure}.
+ * Use this once after enabling {@code app.ancestor-closure.enabled} for an existing database.
+ */
+@Component
+public class AncestorClosureRebuilder implements ApplicationRunner {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  public static final String OPTION = "rebuild-ancestor-closure";
+  private final HorseDao horseDao;
+
+  public AncestorClosureRebuilder(HorseDao horseDao) {
+    this.horseDao = horseDao;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (!args.containsOption(OPTION)) {
+      return;
+    }
+    LOGGER.info("Rebuilding ancestor closure…");
+    horseDao.rebuildAncestorClosure();
+    LOGGER.info("Finished rebuilding ancestor closure.");
+  }
+}
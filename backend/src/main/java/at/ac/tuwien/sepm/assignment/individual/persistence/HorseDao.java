@@ -1,12 +1,20 @@
 package at.ac.tuwien.sepm.assignment.individual.persistence;
 
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseFamilyTreeDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseListDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseSearchDto;
 import at.ac.tuwien.sepm.assignment.individual.entity.Horse;
+import at.ac.tuwien.sepm.assignment.individual.entity.Owner;
 import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
+import at.ac.tuwien.sepm.assignment.individual.exception.VersionConflictException;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Data Access Object for horses.
@@ -20,17 +28,82 @@ public interface HorseDao {
    */
   List<Horse> getAll();
 
+  /**
+   * Get one page of horses, ordered by ID, using keyset pagination.
+   * The cost of a page does not depend on how many pages came before it.
+   *
+   * @param after the ID of the last horse of the previous page, or {@code null} for the first page
+   * @param limit the maximum number of horses on the page
+   * @return at most {@code limit} horses with an ID greater than {@code after}, ordered by ID
+   */
+  List<Horse> getPage(Long after, int limit);
+
+  /**
+   * Like {@link #getAll()}, but joins the owner of every horse in the persistent data store.
+   * Cheaper than fetching the owners separately once there are many distinct owners.
+   *
+   * @return a list of all stored horses with their owners, ordered by ID
+   */
+  List<HorseListDto> getAllWithOwners();
+
+  /**
+   * Like {@link #getPage(Long, int)}, but joins the owner of every horse in the persistent data store.
+   *
+   * @param after the ID of the last horse of the previous page, or {@code null} for the first page
+   * @param limit the maximum number of horses on the page
+   * @return at most {@code limit} horses with an ID greater than {@code after} and their owners, ordered by ID
+   */
+  List<HorseListDto> getPageWithOwners(Long after, int limit);
+
+  /**
+   * Stream all horses stored in the persistent data store, together with their owner, to {@code action}.
+   * Rows are read from a forward-only cursor and handed over one by one,
+   * so no more than the current row is held in memory.
+   *
+   * @param action called once per horse, in ID order, with the horse and its owner ({@code null} if it has none)
+   */
+  void streamAllWithOwners(BiConsumer<Horse, Owner> action);
+
+  /**
+   * Stream the horses stored in the persistent data store with an ID greater than {@code after} to {@code action}.
+   * Like {@link #streamAllWithOwners(BiConsumer)}, rows are read from a forward-only cursor and handed over one by one.
+   *
+   * @param after  the ID after which to start, {@code null} to start with the first horse
+   * @param action called once per horse, in ID order
+   */
+  void streamAll(Long after, Consumer<Horse> action);
+
+  /**
+   * Hand the ID and name of every horse stored in the persistent data store to {@code action}.
+   *
+   * @param action called once per horse with its ID and name
+   */
+  void forEachName(BiConsumer<Long, String> action);
+
+  /**
+   * Hand every horse stored in the persistent data store to {@code action}, one at a time.
+   * Only the fields needed for the pedigree are set: ID, name, date of birth, sex and the parent IDs.
+   *
+   * @param action called once per horse
+   */
+  void forEachPedigreeEntry(Consumer<Horse> action);
 
   /**
    * Update the horse with the ID given in {@code horse}
    * with the data given in {@code horse}
    * in the persistent data store.
+   * <p>
+   * If {@code expectedVersion} is given, the horse is only updated if its version still is {@code expectedVersion}.
+   * Every update increments the version.
+   * </p>
    *
-   * @param horse the horse to update
+   * @param horse           the horse to update
+   * @param expectedVersion the version of the horse the update is based on, or {@code null} to update any version
    * @return the updated horse
    * @throws NotFoundException if the Horse with the given ID does not exist in the persistent data store
+   * @throws VersionConflictException if the horse has a different version than {@code expectedVersion}
    */
-  Horse update(HorseDetailDto horse) throws NotFoundException;
+  Horse update(HorseDetailDto horse, Long expectedVersion) throws NotFoundException, VersionConflictException;
 
   /**
    * Get a horse by its ID from the persistent data store.
@@ -41,12 +114,127 @@ public interface HorseDao {
    */
   Horse getById(long id) throws NotFoundException;
 
+  /**
+   * Get a horse by its ID from the persistent data store, together with its owner, its parents and their owners.
+   * All of them are fetched in a single query.
+   * The parents of the parents are not included.
+   *
+   * @param id the ID of the horse to get
+   * @return the horse with its owner and parents
+   * @throws NotFoundException if the Horse with the given ID does not exist in the persistent data store
+   */
+  HorseDetailDto getDetailById(long id) throws NotFoundException;
+
+  /**
+   * Get the version of the detail of a horse, as returned by {@link #getDetailById(long)}, without fetching it.
+   * The version changes whenever the horse or one of its parents is updated, or a parent is deleted.
+   * Owners can not be changed, so they do not contribute to the version.
+   * It consists of the version of the horse itself, followed by those of its parents, separated by dots.
+   *
+   * @param id the ID of the horse
+   * @return the version of the horse's detail
+   * @throws NotFoundException if the Horse with the given ID does not exist in the persistent data store
+   */
+  String getDetailVersion(long id) throws NotFoundException;
+
+  /**
+   * Get the version of the horses returned by {@link #getAll()}, without fetching them.
+   * A list version consists of the number of horses and a 64 bit fingerprint of their IDs and versions, separated by a dot.
+   * It changes whenever one of the horses is updated, or a horse is added to or removed from the list,
+   * unless the fingerprints of two different lists collide, which is as unlikely as for a 64 bit hash.
+   * Owners can not be changed, so they do not contribute to the version.
+   *
+   * @return the version of the list of all horses
+   */
+  String getAllVersion();
+
+  /**
+   * Get the version of the page returned by {@link #getPage(Long, int)}, without fetching it.
+   * Like all list versions, it is made up as described for {@link #getAllVersion()}.
+   *
+   * @param after the ID of the last horse of the previous page, or {@code null} for the first page
+   * @param limit the maximum number of horses on the page
+   * @return the version of the page
+   */
+  String getPageVersion(Long after, int limit);
+
+  /**
+   * Get the version of all horses that {@link #search(HorseSearchDto)} chooses from, without fetching them.
+   * The limit of the search is ignored, so the version does not depend on which of the matching horses are returned.
+   *
+   * @param requestParameters the parameters that the horses need to have
+   * @return the version of the matching horses
+   */
+  String searchVersion(HorseSearchDto requestParameters);
+
+  /**
+   * Get the version of the horses returned by {@link #getAll(HorseSearchDto)}, without fetching them.
+   *
+   * @param parameters search parameters
+   * @return the version of the matching horses
+   */
+  String getAllVersion(HorseSearchDto parameters);
+
+  /**
+   * Get the version of the horses returned by {@link #getAllById(Collection)}, without fetching them.
+   *
+   * @param ids the IDs of the horses
+   * @return the version of the found horses
+   */
+  String getAllByIdVersion(Collection<Long> ids);
+
+  /**
+   * Get the version of the horses of a family tree, as returned by {@link #getFamilyTree(HorseFamilyTreeDto)}, without fetching them.
+   *
+   * @param parameters the horse to get the family tree of, with the number of generations
+   * @return the version of the horses of the family tree
+   */
+  String getFamilyTreeVersion(HorseFamilyTreeDto parameters);
+
   /**
    * @param newHorse the horse to add
    * @return the newly added horse
    */
   Horse create(HorseDetailDto newHorse);
 
+  /**
+   * Create all horses of a batch in the persistent data store, in a single transaction.
+   * The horses are inserted with as few JDBC batches as the parent references within the batch allow.
+   * A parent given by index must come before the horse in {@code newHorses}.
+   *
+   * @param newHorses the horses to create, validated
+   * @return the IDs of the created horses, in the order of {@code newHorses}
+   */
+  List<Long> createAll(List<HorseBatchEntryDto> newHorses);
+
+  /**
+   * Fetch the horses with the given IDs from the persistent data store.
+   * This is best effort, horses that do not exist are simply not returned.
+   *
+   * @param ids the IDs of the horses
+   * @return the found horses, in no particular order
+   */
+  List<Horse> getAllById(Collection<Long> ids);
+
+  /**
+   * Fetch the horses with the given external IDs from the persistent data store.
+   * This is best effort, horses that do not exist are simply not returned.
+   * Only the ID, name, date of birth, sex and parents of the horses are loaded.
+   *
+   * @param externalIds the IDs of the horses in the registries they were imported from
+   * @return the found horses by their external ID
+   */
+  Map<String, Horse> getAllByExternalId(Collection<String> externalIds);
+
+  /**
+   * Fetch all horses with one of the given names from the persistent data store.
+   * Only the ID, name, date of birth, sex and parents of the horses are loaded.
+   *
+   * @param names the exact names of the horses
+   * @return the found horses, ordered by ID
+   */
+  List<Horse> getAllByName(Collection<String> names);
+
   /**
    * Deletes a horse from the persistent data store.
    *
@@ -55,15 +243,35 @@ public interface HorseDao {
   void delete(long id);
 
   /**
-   * Get all horses stored in the persistent data store matching the given parameters
+   * Get all horses stored in the persistent data store matching the given parameters.
+   * Meant for suggestions of parents, so only the ID, name, date of birth, sex and owner of the horses are loaded.
    *
    * @param requestParameters the parameters that the horses need to have
    * @return a list of all stored horses matching the given parameters
    */
   List<Horse> search(HorseSearchDto requestParameters);
 
+  /**
+   * Like {@link #search(HorseSearchDto)}, but joins the owner of every horse in the persistent data store.
+   *
+   * @param requestParameters the parameters that the horses need to have
+   * @return a list of all stored horses matching the given parameters, with their owners
+   */
+  List<HorseListDto> searchWithOwners(HorseSearchDto requestParameters);
+
+  /**
+   * Like {@link #search(HorseSearchDto)}, but only considers the horses with the given IDs.
+   * Used to verify candidates found by an index against the persistent data store.
+   *
+   * @param ids               the IDs of the candidate horses
+   * @param requestParameters the parameters that the horses need to have
+   * @return the candidates matching the given parameters, ordered by ID
+   */
+  List<Horse> searchAmong(Collection<Long> ids, HorseSearchDto requestParameters);
+
   /**
    * Get all horses stored in the persistent data store that match the given parameters.
+   * A full-text search returns the most relevant horses first, at most {@code limit} of them if it is given.
    *
    * @param parameters search parameters
    * @return a list of all stored horses matching the parameters
@@ -71,8 +279,65 @@ public interface HorseDao {
   List<Horse> getAll(HorseSearchDto parameters);
 
   /**
+   * Like {@link #getAll(HorseSearchDto)}, but joins the owner of every horse in the persistent data store.
+   *
+   * @param parameters search parameters
+   * @return a list of all stored horses matching the parameters, with their owners
+   */
+  List<HorseListDto> getAllWithOwners(HorseSearchDto parameters);
+
+  /**
+   * Get a horse and its ancestors.
+   * Every horse is contained once, at its smallest distance from the horse, ordered by that distance and then by ID.
+   * Only the ID, name, date of birth, sex and parents of the horses are loaded.
+   *
    * @param parameters the horse to get its ancestors from with the number of generations to get
    * @return a list of horses, containing all related horses
    */
   List<Horse> getFamilyTree(HorseFamilyTreeDto parameters);
+
+  /**
+   * Get a horse and its descendants, generation by generation.
+   * Each generation is fetched with batched lookups on the indexed parent columns,
+   * so the cost only depends on the number of descendants, not on the size of the stud book.
+   * Only the ID, name, date of birth, sex and parents of the descendants are loaded.
+   *
+   * @param id          the ID of the horse to get the descendants of
+   * @param generations the number of generations to get, counting the horse itself
+   * @return the horse followed by its descendants, ordered by generation and then by ID; every horse is contained once
+   * @throws NotFoundException if the horse with the given ID does not exist in the persistent data store
+   */
+  List<Horse> getDescendants(long id, long generations) throws NotFoundException;
+
+  /**
+   * Check whether a horse is an ancestor of another one.
+   *
+   * @param ancestorId   the ID of the possible ancestor
+   * @param descendantId the ID of the possible descendant
+   * @return true if {@code ancestorId} is a parent, grandparent, … of {@code descendantId}
+   */
+  boolean isAncestor(long ancestorId, long descendantId);
+
+  /**
+   * Check whether a horse is the mother of at least one horse, using the index on the mother column.
+   *
+   * @param id the ID of the horse
+   * @return true if some horse has {@code id} as mother
+   */
+  boolean hasChildrenAsMother(long id);
+
+  /**
+   * Check whether a horse is the father of at least one horse, using the index on the father column.
+   *
+   * @param id the ID of the horse
+   * @return true if some horse has {@code id} as father
+   */
+  boolean hasChildrenAsFather(long id);
+
+  /**
+   * Recompute the ancestor closure table from the parent links of all horses.
+   * Needed once when the closure is enabled for an existing database,
+   * or after horses were changed without going through this DAO.
+   */
+  void rebuildAncestorClosure();
 }
@@ -4,6 +4,7 @@ import at.ac.tuwien.sepm.assignment.individual.dto.OwnerCreateDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.OwnerSearchDto;
 import at.ac.tuwien.sepm.assignment.individual.entity.Owner;
 import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
+import at.ac.tuwien.sepm.assignment.individual.exception.ValidationException;
 
 import java.util.Collection;
 
@@ -45,9 +46,11 @@ public interface OwnerDao {
 
   /**
    * Create a new owner in the persistent data store.
+   * The uniqueness of the email address is ensured by the unique index on it.
    *
    * @param newOwner the data to create the new owner from
    * @return the newly created owner
+   * @throws ValidationException if another owner already uses the email address
    */
-  Owner create(OwnerCreateDto newOwner);
+  Owner create(OwnerCreateDto newOwner) throws ValidationException;
 }
@@ -1,20 +1,29 @@
 package at.ac.tuwien.sepm.assignment.individual.persistence.impl;
 
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseFamilyTreeDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseListDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseSearchDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.OwnerDto;
 import at.ac.tuwien.sepm.assignment.individual.entity.Horse;
+import at.ac.tuwien.sepm.assignment.individual.entity.Owner;
 import at.ac.tuwien.sepm.assignment.individual.exception.FatalException;
 import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
+import at.ac.tuwien.sepm.assignment.individual.exception.VersionConflictException;
 import at.ac.tuwien.sepm.assignment.individual.persistence.HorseDao;
 import at.ac.tuwien.sepm.assignment.individual.type.Sex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.lang.invoke.MethodHandles;
 import java.sql.Date;
@@ -24,16 +33,59 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 @Repository
 public class HorseJdbcDao implements HorseDao {
   private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
   private static final String TABLE_NAME = "horse";
-  private static final String SQL_SELECT_ALL = "SELECT * FROM " + TABLE_NAME;
-  private static final String SQL_SELECT_BY_ID = "SELECT * FROM " + TABLE_NAME + " WHERE id = ?";
+  // Projections: every query only selects the columns its use case needs,
+  // in the order the row mapper for the projection reads them by index.
+  // all columns of the entity, read by mapRow
+  private static final String HORSE_COLUMNS = "id, name, description, date_of_birth, sex, owner_id, mother_id, father_id";
+  // parent suggestions while typing, read by mapSuggestionRow; never need the description
+  private static final String SUGGESTION_COLUMNS = "id, name, date_of_birth, sex, owner_id";
+  // nodes of family trees and descendant listings, read by mapNodeRow; never need the description or owner
+  private static final String NODE_COLUMNS = "id, name, date_of_birth, sex, mother_id, father_id";
+  private static final String SQL_SELECT_ALL = "SELECT " + HORSE_COLUMNS + " FROM " + TABLE_NAME;
+  private static final String SQL_SELECT_PAGE = "SELECT " + HORSE_COLUMNS + " FROM " + TABLE_NAME + " WHERE id > ? ORDER BY id LIMIT ?";
+  // a horse of a list followed by its owner, read by mapListRow
+  private static final String LIST_COLUMNS = qualified("h", HORSE_COLUMNS) + ", o.first_name, o.last_name, o.email";
+  private static final String SQL_SELECT_ALL_WITH_OWNERS = "SELECT " + LIST_COLUMNS
+      + " FROM " + TABLE_NAME + " h LEFT JOIN owner o ON o.id = h.owner_id"
+      + " ORDER BY h.id";
+  private static final String SQL_SELECT_PAGE_WITH_OWNERS = "SELECT " + LIST_COLUMNS
+      + " FROM " + TABLE_NAME + " h LEFT JOIN owner o ON o.id = h.owner_id"
+      + " WHERE h.id > ? ORDER BY h.id LIMIT ?";
+  private static final String SQL_SELECT_ALL_AFTER = "SELECT " + HORSE_COLUMNS + " FROM " + TABLE_NAME + " WHERE id > ? ORDER BY id";
+  private static final int STREAM_FETCH_SIZE = 500;
+  private static final String SQL_SELECT_BY_ID = "SELECT " + HORSE_COLUMNS + " FROM " + TABLE_NAME + " WHERE id = ?";
+  private static final int DETAIL_COLUMN_COUNT = 9;
+  private static final String SQL_SELECT_DETAIL_BY_ID = "SELECT "
+      + detailColumns("h", "o") + ", "
+      + detailColumns("m", "mo") + ", "
+      + detailColumns("f", "fo")
+      + " FROM " + TABLE_NAME + " h"
+      + " LEFT JOIN owner o ON o.id = h.owner_id"
+      + " LEFT JOIN " + TABLE_NAME + " m ON m.id = h.mother_id"
+      + " LEFT JOIN owner mo ON mo.id = m.owner_id"
+      + " LEFT JOIN " + TABLE_NAME + " f ON f.id = h.father_id"
+      + " LEFT JOIN owner fo ON fo.id = f.owner_id"
+      + " WHERE h.id = ?";
   private static final String SQL_UPDATE = "UPDATE " + TABLE_NAME
       + " SET name = ?"
       + "  , description = ?"
@@ -42,32 +94,115 @@ public class HorseJdbcDao implements HorseDao {
       + "  , owner_id = ?"
       + "  , mother_id = ?"
       + "  , father_id = ?"
+      + "  , version = version + 1"
       + " WHERE id = ?";
+  // optimistic concurrency: only update the horse if nobody else did since the client read it
+  private static final String SQL_VERSION_CONDITION = " AND version = ?";
+  private static final String SQL_EXISTS = "SELECT EXISTS (SELECT 1 FROM " + TABLE_NAME + " WHERE id = ?)";
   private static final String SQL_INSERT = "INSERT INTO " + TABLE_NAME
       + " (name, description, date_of_birth, sex, owner_id, mother_id, father_id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+  // the longest run of inserts sent to the database at once
+  private static final int INSERT_BATCH_SIZE = 1000;
+  private static final String SQL_INSERT_BATCH = "INSERT INTO " + TABLE_NAME
+      + " (name, description, date_of_birth, sex, owner_id, mother_id, father_id, external_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String SQL_SELECT_BY_EXTERNAL_IDS = "SELECT " + NODE_COLUMNS + ", external_id FROM " + TABLE_NAME
+      + " WHERE external_id IN (:ids)";
+  private static final String SQL_SELECT_BY_NAMES = "SELECT " + NODE_COLUMNS + " FROM " + TABLE_NAME + " WHERE name IN (:names) ORDER BY id";
+  private static final String SQL_SELECT_BY_IDS = "SELECT " + HORSE_COLUMNS + " FROM " + TABLE_NAME + " WHERE id IN (:ids)";
+  private static final int SELECT_BY_IDS_BATCH_SIZE = 500;
   private static final String SQL_DELETE = "DELETE FROM " + TABLE_NAME + " WHERE id = ?";
-  private static final String SQL_SELECT_SEARCH_PARENTS = "SELECT * FROM " + TABLE_NAME
+  private static final String SQL_SELECT_SEARCH_PARENTS = "SELECT " + SUGGESTION_COLUMNS + " FROM " + TABLE_NAME
       + " WHERE UPPER(name) like UPPER('%'||COALESCE(?, '')||'%') AND sex = ? LIMIT ?";
-  private static final String SQL_SELECT_SEARCH = "SELECT * FROM " + TABLE_NAME
-      + " LEFT JOIN owner ON horse.owner_id = owner.id"
+  private static final String SQL_SELECT_SEARCH_PARENTS_WITH_OWNERS = "SELECT " + qualified("h", SUGGESTION_COLUMNS)
+      + ", o.first_name, o.last_name, o.email FROM " + TABLE_NAME + " h LEFT JOIN owner o ON o.id = h.owner_id"
+      + " WHERE UPPER(h.name) like UPPER('%'||COALESCE(?, '')||'%') AND h.sex = ? LIMIT ?";
+  private static final String SQL_SELECT_SEARCH_PARENTS_AMONG = "SELECT " + SUGGESTION_COLUMNS + " FROM " + TABLE_NAME
+      + " WHERE id IN (:ids) AND UPPER(name) like UPPER('%'||COALESCE(:name, '')||'%') AND sex = :sex ORDER BY id LIMIT :limit";
+  private static final String SQL_SELECT_NAMES = "SELECT id, name FROM " + TABLE_NAME;
+  // one branch per parent column, so each can use the index on its foreign key
+  private static final String SQL_SELECT_CHILDREN = "SELECT " + NODE_COLUMNS + " FROM " + TABLE_NAME + " WHERE mother_id IN (:ids)"
+      + " UNION SELECT " + NODE_COLUMNS + " FROM " + TABLE_NAME + " WHERE father_id IN (:ids) ORDER BY id";
+  private static final int CHILDREN_BATCH_SIZE = 500;
+  private static final String SQL_GET_FAMILY_TREE_FROM_CLOSURE = "SELECT " + qualified("h", NODE_COLUMNS) + " FROM horse_ancestor a"
+      + " JOIN " + TABLE_NAME + " h ON h.id = a.ancestor_id"
+      + " WHERE a.descendant_id = ? AND a.depth < ? ORDER BY a.depth, h.id";
+  private static final String SQL_GET_DESCENDANTS_FROM_CLOSURE = "SELECT " + qualified("h", NODE_COLUMNS) + " FROM horse_ancestor a"
+      + " JOIN " + TABLE_NAME + " h ON h.id = a.descendant_id"
+      + " WHERE a.ancestor_id = ? AND a.depth < ? ORDER BY a.depth, h.id";
+  private static final String SQL_IS_ANCESTOR_FROM_CLOSURE = "SELECT COUNT(*) FROM horse_ancestor"
+      + " WHERE descendant_id = ? AND ancestor_id = ? AND depth > 0";
+  private static final String SQL_IS_ANCESTOR =
+      "WITH RECURSIVE ancestor(id) AS ("
+          + " SELECT p.id FROM " + TABLE_NAME + " c JOIN " + TABLE_NAME + " p ON p.id IN (c.mother_id, c.father_id) WHERE c.id = ?"
+          + " UNION SELECT p.id FROM ancestor a JOIN " + TABLE_NAME + " c ON c.id = a.id"
+          + " JOIN " + TABLE_NAME + " p ON p.id IN (c.mother_id, c.father_id))"
+          + " SELECT COUNT(*) FROM ancestor WHERE id = ?";
+  private static final String SQL_HAS_CHILDREN_AS_MOTHER = "SELECT EXISTS (SELECT 1 FROM " + TABLE_NAME + " WHERE mother_id = ?)";
+  private static final String SQL_HAS_CHILDREN_AS_FATHER = "SELECT EXISTS (SELECT 1 FROM " + TABLE_NAME + " WHERE father_id = ?)";
+  private static final String SQL_SELECT_DETAIL_VERSION = "SELECT h.version, m.version AS mother_version, f.version AS father_version"
+      + " FROM " + TABLE_NAME + " h"
+      + " LEFT JOIN " + TABLE_NAME + " m ON m.id = h.mother_id"
+      + " LEFT JOIN " + TABLE_NAME + " f ON f.id = h.father_id"
+      + " WHERE h.id = ?";
+  // a list version: changes if a horse of the list is updated (which increments its version), added or removed
+  private static final String VERSION_COLUMNS = versionColumns("id", "version");
+  // the search joins the owner, so the columns need to be qualified
+  private static final String SEARCH_VERSION_COLUMNS = versionColumns(TABLE_NAME + ".id", TABLE_NAME + ".version");
+  private static final String SQL_SELECT_ALL_VERSION = "SELECT " + VERSION_COLUMNS + " FROM " + TABLE_NAME;
+  private static final String SQL_SELECT_PAGE_VERSION = "SELECT " + VERSION_COLUMNS
+      + " FROM (SELECT id, version FROM " + TABLE_NAME + " WHERE id > ? ORDER BY id LIMIT ?)";
+  private static final String SQL_SELECT_SEARCH_PARENTS_VERSION = "SELECT " + VERSION_COLUMNS + " FROM " + TABLE_NAME
+      + " WHERE UPPER(name) like UPPER('%'||COALESCE(?, '')||'%') AND sex = ?";
+  private static final String SQL_SELECT_BY_IDS_VERSION = "SELECT " + VERSION_COLUMNS + " FROM " + TABLE_NAME + " WHERE id IN (:ids)";
+  private static final String SQL_SELECT_PARENT_IDS = "SELECT mother_id, father_id FROM " + TABLE_NAME + " WHERE id = ?";
+  private static final String SQL_SELECT_CLOSURE_DESCENDANTS = "SELECT descendant_id FROM horse_ancestor WHERE ancestor_id = ?";
+  private static final String SQL_DELETE_CLOSURE = "DELETE FROM horse_ancestor WHERE descendant_id IN (:ids)";
+  private static final String SQL_DELETE_CLOSURE_ALL = "DELETE FROM horse_ancestor";
+  private static final String SQL_INSERT_CLOSURE_SELF = "INSERT INTO horse_ancestor (descendant_id, ancestor_id, depth)"
+      + " SELECT id, id, 0 FROM " + TABLE_NAME;
+  // adds the ancestors one generation above the deepest known ones, unless they are already known at a smaller depth
+  private static final String SQL_INSERT_CLOSURE_GENERATION = "INSERT INTO horse_ancestor (descendant_id, ancestor_id, depth)"
+      + " SELECT DISTINCT c.descendant_id, p.id, :depth FROM horse_ancestor c"
+      + " JOIN " + TABLE_NAME + " h ON h.id = c.ancestor_id"
+      + " JOIN " + TABLE_NAME + " p ON p.id IN (h.mother_id, h.father_id)"
+      + " WHERE c.depth = :depth - 1"
+      + " AND NOT EXISTS (SELECT 1 FROM horse_ancestor e WHERE e.descendant_id = c.descendant_id AND e.ancestor_id = p.id)";
+  private static final String SQL_SELECT_PEDIGREE = "SELECT " + NODE_COLUMNS + " FROM " + TABLE_NAME;
+  private static final String SQL_SEARCH_CONDITIONS = " LEFT JOIN owner ON horse.owner_id = owner.id"
       + " WHERE UPPER(name) like UPPER('%'||COALESCE(?, '')||'%')"
-      + " AND sex IN( COALESCE(?,'MALE'), COALESCE(?, 'FEMALE') )"
       + " AND date_of_birth <= ?";
-  private static final String SQL_GET_FAMILY_TREE =
-      "WITH RECURSIVE tmp(id, name, description, sex, date_of_birth, owner_id, mother_id, father_id, depth, depth_first) AS"
-          + " (select id, name, description, sex, date_of_birth, owner_id, mother_id, father_id, 0, id::text as depth_first"
-          + " FROM " + TABLE_NAME + " WHERE horse.id = ?"
-          + " UNION ALL SELECT h.id, h.name, h.description, h.sex, h.date_of_birth, "
-          + " h.owner_id, h.mother_id, h.father_id, t.depth + 1, t.depth_first || '-' || h.id::text as depth_first "
-          + " FROM  horse h, tmp t"
-          + " WHERE (h.id = t.mother_id or h.id = t.father_id) and t.depth_first not like '%' || h.id::text || '%') "
-          + " SELECT * FROM tmp WHERE depth < ? ORDER BY depth_first;";
+  private static final String SQL_FROM_SEARCH = " FROM " + TABLE_NAME + SQL_SEARCH_CONDITIONS;
+  // FT_SEARCH_DATA looks the words up in the full-text index and returns the primary keys of the matching rows
+  private static final String SQL_FROM_SEARCH_FULL_TEXT = " FROM FT_SEARCH_DATA(?, 0, 0) ft"
+      + " JOIN " + TABLE_NAME + " ON ft.\"TABLE\" = 'HORSE' AND horse.id = ft.KEYS[1]"
+      + SQL_SEARCH_CONDITIONS;
+  private static final String SEARCH_COLUMNS = qualified(TABLE_NAME, HORSE_COLUMNS);
+  // the search already joins the owner for its conditions, so adding its columns is free; read by mapListRow
+  private static final String SEARCH_LIST_COLUMNS = SEARCH_COLUMNS + ", owner.first_name, owner.last_name, owner.email";
+  private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+  // every horse of the family tree with the generations between it and the root, once per path to it
+  private static final String FAMILY_TREE_CTE =
+      "WITH RECURSIVE tree(id, depth) AS ("
+          + " SELECT id, 0 FROM " + TABLE_NAME + " WHERE id = ?"
+          + " UNION SELECT p.id, t.depth + 1 FROM tree t JOIN " + TABLE_NAME + " c ON c.id = t.id"
+          + " JOIN " + TABLE_NAME + " p ON p.id IN (c.mother_id, c.father_id) WHERE t.depth + 1 < ?)";
+  // like the ancestor closure, every horse once at its smallest depth, ordered by depth and ID
+  private static final String SQL_GET_FAMILY_TREE = FAMILY_TREE_CTE
+      + " SELECT " + qualified("h", NODE_COLUMNS) + ", MIN(t.depth) FROM tree t JOIN " + TABLE_NAME + " h ON h.id = t.id"
+      + " WHERE t.depth < ? GROUP BY " + qualified("h", NODE_COLUMNS) + " ORDER BY MIN(t.depth), h.id";
 
+  private static final String SQL_SELECT_FAMILY_TREE_VERSION = FAMILY_TREE_CTE
+      + " SELECT " + VERSION_COLUMNS + " FROM " + TABLE_NAME + " WHERE id IN (SELECT id FROM tree) AND ? > 0";
   private final JdbcTemplate jdbcTemplate;
+  private final NamedParameterJdbcTemplate jdbcNamed;
+  private final boolean ancestorClosure;
 
   public HorseJdbcDao(
-      JdbcTemplate jdbcTemplate) {
+      JdbcTemplate jdbcTemplate, NamedParameterJdbcTemplate jdbcNamed,
+      @Value("${app.ancestor-closure.enabled:false}") boolean ancestorClosure) {
     this.jdbcTemplate = jdbcTemplate;
+    this.jdbcNamed = jdbcNamed;
+    this.ancestorClosure = ancestorClosure;
   }
 
   @Override
@@ -80,6 +215,79 @@ public class HorseJdbcDao implements HorseDao {
     }
   }
 
+  @Override
+  public List<HorseListDto> getAllWithOwners() {
+    LOG.trace("getAllWithOwners(), persistence");
+    try {
+      return jdbcTemplate.query(SQL_SELECT_ALL_WITH_OWNERS, this::mapListRow);
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching all horses", e);
+    }
+  }
+
+  @Override
+  public List<HorseListDto> getPageWithOwners(Long after, int limit) {
+    LOG.trace("getPageWithOwners({}, {}), persistence", after, limit);
+    try {
+      long cursor = after == null ? Long.MIN_VALUE : after;
+      return jdbcTemplate.query(SQL_SELECT_PAGE_WITH_OWNERS, this::mapListRow, cursor, limit);
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching a page of horses", e);
+    }
+  }
+
+  @Override
+  public List<Horse> getPage(Long after, int limit) {
+    LOG.trace("getPage({}, {}), persistence", after, limit);
+    try {
+      long cursor = after == null ? Long.MIN_VALUE : after;
+      return jdbcTemplate.query(SQL_SELECT_PAGE, this::mapRow, cursor, limit);
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching a page of horses", e);
+    }
+  }
+
+  @Override
+  public void streamAllWithOwners(BiConsumer<Horse, Owner> action) {
+    LOG.trace("streamAllWithOwners(), persistence");
+    try {
+      jdbcTemplate.query(connection -> {
+        PreparedStatement stmt = connection.prepareStatement(SQL_SELECT_ALL_WITH_OWNERS,
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(STREAM_FETCH_SIZE);
+        return stmt;
+      }, (ResultSet result) -> {
+        Horse horse = mapRow(result, 0);
+        Owner owner = horse.getOwnerId() == null
+            ? null
+            : new Owner()
+            .setId(horse.getOwnerId())
+            .setFirstName(result.getString(9))
+            .setLastName(result.getString(10))
+            .setEmail(result.getString(11));
+        action.accept(horse, owner);
+      });
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while streaming all horses", e);
+    }
+  }
+
+  @Override
+  public void streamAll(Long after, Consumer<Horse> action) {
+    LOG.trace("streamAll({}), persistence", after);
+    try {
+      jdbcTemplate.query(connection -> {
+        PreparedStatement stmt = connection.prepareStatement(SQL_SELECT_ALL_AFTER,
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(STREAM_FETCH_SIZE);
+        stmt.setLong(1, after == null ? Long.MIN_VALUE : after);
+        return stmt;
+      }, (ResultSet result) -> action.accept(mapRow(result, 0)));
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while streaming all horses", e);
+    }
+  }
+
   @Override
   public List<Horse> search(HorseSearchDto requestParameters) {
     LOG.trace("search({}), persistence", requestParameters);
@@ -89,39 +297,155 @@ public class HorseJdbcDao implements HorseDao {
       params.add(requestParameters.sex().toString());
       params.add(requestParameters.limit());
       var query = SQL_SELECT_SEARCH_PARENTS;
-      return jdbcTemplate.query(query, this::mapRow, params.toArray());
+      return jdbcTemplate.query(query, this::mapSuggestionRow, params.toArray());
     } catch (DataAccessException e) {
       throw new FatalException("Internal error occurred while fetching horses suggestions", e);
     }
   }
 
+  @Override
+  public List<HorseListDto> searchWithOwners(HorseSearchDto requestParameters) {
+    LOG.trace("searchWithOwners({}), persistence", requestParameters);
+    try {
+      return jdbcTemplate.query(SQL_SELECT_SEARCH_PARENTS_WITH_OWNERS, this::mapSuggestionListRow,
+          requestParameters.name(), requestParameters.sex().toString(), requestParameters.limit());
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching horses suggestions", e);
+    }
+  }
+
+  @Override
+  public List<Horse> searchAmong(Collection<Long> ids, HorseSearchDto requestParameters) {
+    LOG.trace("searchAmong({}, {}), persistence", ids.size(), requestParameters);
+    if (ids.isEmpty()) {
+      return List.of();
+    }
+    try {
+      var params = new MapSqlParameterSource()
+          .addValue("ids", ids)
+          .addValue("name", requestParameters.name())
+          .addValue("sex", requestParameters.sex().toString())
+          .addValue("limit", requestParameters.limit());
+      return jdbcNamed.query(SQL_SELECT_SEARCH_PARENTS_AMONG, params, this::mapSuggestionRow);
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching horses suggestions", e);
+    }
+  }
+
+  @Override
+  public void forEachName(BiConsumer<Long, String> action) {
+    LOG.trace("forEachName(), persistence");
+    try {
+      jdbcTemplate.query(SQL_SELECT_NAMES, (ResultSet result) -> {
+        action.accept(result.getLong(1), result.getString(2));
+      });
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching horse names", e);
+    }
+  }
+
+  @Override
+  public void forEachPedigreeEntry(Consumer<Horse> action) {
+    LOG.trace("forEachPedigreeEntry(), persistence");
+    try {
+      jdbcTemplate.query(SQL_SELECT_PEDIGREE, (ResultSet result) -> action.accept(mapNodeRow(result, 0)));
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching the pedigree", e);
+    }
+  }
+
   @Override
   public List<Horse> getAll(HorseSearchDto parameters) {
     LOG.trace("getAll({}), persistence", parameters);
     try {
-      var query = SQL_SELECT_SEARCH;
       var params = new ArrayList<>();
-      params.add(parameters.name());
-      var sexParameter = parameters.sex() == null ? null : parameters.sex().toString();
-      params.add(sexParameter);
-      params.add(sexParameter);
-      LocalDate bornBeforeParameter = parameters.bornBefore() == null ? LocalDate.now() : parameters.bornBefore();
-      params.add(bornBeforeParameter);
-
-      if (!Objects.equals(parameters.description(), "")) {
-        query += " AND UPPER(description) like UPPER('%'||COALESCE(?, '')||'%')";
-        params.add(parameters.description());
-      }
-      if (!Objects.equals(parameters.ownerName(), "")) {
-        query += " AND CONCAT(CONCAT(UPPER(owner.first_name), ' '), UPPER(owner.last_name)) like UPPER('%'||COALESCE(?, '')||'%');";
-        params.add(parameters.ownerName());
-      }
+      String query = searchQuery(SEARCH_COLUMNS, parameters, params);
       return jdbcTemplate.query(query, this::mapRow, params.toArray());
     } catch (DataAccessException e) {
       throw new FatalException("Internal error occurred while fetching horses with given parameters", e);
     }
   }
 
+  @Override
+  public List<HorseListDto> getAllWithOwners(HorseSearchDto parameters) {
+    LOG.trace("getAllWithOwners({}), persistence", parameters);
+    try {
+      var params = new ArrayList<>();
+      String query = searchQuery(SEARCH_LIST_COLUMNS, parameters, params);
+      return jdbcTemplate.query(query, this::mapListRow, params.toArray());
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching horses with given parameters", e);
+    }
+  }
+
+  private static boolean isFullText(HorseSearchDto parameters) {
+    return Boolean.TRUE.equals(parameters.fullText())
+        && parameters.description() != null && !parameters.description().isBlank();
+  }
+
+  /**
+   * Build the query for the search with {@code parameters}, selecting {@code columns}, and add its parameters to {@code params}.
+   */
+  private static String searchQuery(String columns, HorseSearchDto parameters, List<Object> params) {
+    boolean fullText = isFullText(parameters);
+    if (fullText) {
+      params.add(parameters.description());
+    }
+    var query = "SELECT " + columns + (fullText ? SQL_FROM_SEARCH_FULL_TEXT : SQL_FROM_SEARCH);
+    params.add(parameters.name());
+    LocalDate bornBeforeParameter = parameters.bornBefore() == null ? LocalDate.now() : parameters.bornBefore();
+    params.add(bornBeforeParameter);
+
+    if (parameters.sex() != null) {
+      // together with the date of birth condition, this can use idx_horse_sex_date_of_birth
+      query += " AND sex = ?";
+      params.add(parameters.sex().toString());
+    }
+
+    if (!fullText && !Objects.equals(parameters.description(), "")) {
+      query += " AND UPPER(description) like UPPER('%'||COALESCE(?, '')||'%')";
+      params.add(parameters.description());
+    }
+    if (!Objects.equals(parameters.ownerName(), "")) {
+      query += " AND CONCAT(CONCAT(UPPER(owner.first_name), ' '), UPPER(owner.last_name)) like UPPER('%'||COALESCE(?, '')||'%')";
+      params.add(parameters.ownerName());
+    }
+    if (fullText) {
+      query += " ORDER BY " + relevance(parameters.description(), params) + " DESC, horse.id";
+      if (parameters.limit() != null) {
+        query += " LIMIT ?";
+        params.add(parameters.limit());
+      }
+    }
+    return query;
+  }
+
+  /**
+   * H2's native full-text search does not rank its results (every score is 1),
+   * so rank the matching horses by how often the searched words occur in their description.
+   * Every occurrence of a word is removed from the description, and the removed length counted.
+   * The expression is meant for the ORDER BY clause, its parameters are added to {@code params}.
+   */
+  private static String relevance(String searchText, List<Object> params) {
+    var occurrences = new ArrayList<String>();
+    for (String word : new LinkedHashSet<>(words(searchText))) {
+      occurrences.add("(LENGTH(UPPER(horse.description))"
+          + " - LENGTH(REGEXP_REPLACE(UPPER(horse.description), '(?<![\\p{L}\\p{N}])' || ? || '(?![\\p{L}\\p{N}])', '')))"
+          + " / " + word.length());
+      params.add(word);
+    }
+    return occurrences.isEmpty() ? "0" : "(" + String.join(" + ", occurrences) + ")";
+  }
+
+  private static List<String> words(String text) {
+    if (text == null) {
+      return List.of();
+    }
+    return Arrays.stream(WORD_SEPARATOR.split(text.toUpperCase(Locale.ROOT)))
+        .filter(word -> !word.isEmpty())
+        .toList();
+  }
+
   @Override
   public Horse getById(long id) throws NotFoundException {
     LOG.trace("getById({}), persistence", id);
@@ -145,12 +469,182 @@ public class HorseJdbcDao implements HorseDao {
 
 
   @Override
-  public Horse update(HorseDetailDto horse) throws NotFoundException {
-    LOG.trace("update({}), persistence", horse);
+  public List<Horse> getDescendants(long id, long generations) throws NotFoundException {
+    LOG.trace("getDescendants({}, {}), persistence", id, generations);
+    Horse root = getById(id);
+    List<Horse> descendants = new ArrayList<>();
+    if (generations < 1) {
+      return descendants;
+    }
+    if (ancestorClosure) {
+      try {
+        return jdbcTemplate.query(SQL_GET_DESCENDANTS_FROM_CLOSURE, this::mapNodeRow, id, generations);
+      } catch (DataAccessException e) {
+        throw new FatalException("Internal error occurred while getting descendants of horse", e);
+      }
+    }
+    descendants.add(root);
+    Set<Long> seen = new HashSet<>();
+    seen.add(id);
+    List<Long> level = List.of(id);
     try {
+      for (long depth = 1; depth < generations && !level.isEmpty(); depth++) {
+        List<Long> next = new ArrayList<>();
+        for (int from = 0; from < level.size(); from += CHILDREN_BATCH_SIZE) {
+          var params = new MapSqlParameterSource("ids", level.subList(from, Math.min(from + CHILDREN_BATCH_SIZE, level.size())));
+          for (Horse child : jdbcNamed.query(SQL_SELECT_CHILDREN, params, this::mapNodeRow)) {
+            if (seen.add(child.getId())) {
+              descendants.add(child);
+              next.add(child.getId());
+            }
+          }
+        }
+        level = next;
+      }
+      return descendants;
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while getting descendants of horse", e);
+    }
+  }
+
+  @Override
+  public HorseDetailDto getDetailById(long id) throws NotFoundException {
+    LOG.trace("getDetailById({}), persistence", id);
+    try {
+      List<HorseDetailDto> horses = jdbcTemplate.query(SQL_SELECT_DETAIL_BY_ID, this::mapDetailRow, id);
+
+      if (horses.isEmpty()) {
+        throw new NotFoundException("No horse with ID %d found".formatted(id));
+      }
+      if (horses.size() > 1) {
+        // This should never happen!!
+        throw new FatalException("Too many horses with ID %d found".formatted(id));
+      }
+
+      return horses.get(0);
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching horse with the given id", e);
+    }
+  }
+
+  @Override
+  public String getDetailVersion(long id) throws NotFoundException {
+    LOG.trace("getDetailVersion({}), persistence", id);
+    try {
+      List<String> versions = jdbcTemplate.query(SQL_SELECT_DETAIL_VERSION, (result, rownum) ->
+          result.getLong("version") + "." + versionOrNone(result, "mother_version") + "." + versionOrNone(result, "father_version"), id);
+      if (versions.isEmpty()) {
+        throw new NotFoundException("No horse with ID %d found".formatted(id));
+      }
+      return versions.get(0);
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching the version of horse with the given id", e);
+    }
+  }
+
+  @Override
+  public String getAllVersion() {
+    LOG.trace("getAllVersion(), persistence");
+    try {
+      return jdbcTemplate.queryForObject(SQL_SELECT_ALL_VERSION, HorseJdbcDao::mapVersion);
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching the version of all horses", e);
+    }
+  }
+
+  @Override
+  public String getPageVersion(Long after, int limit) {
+    LOG.trace("getPageVersion({}, {}), persistence", after, limit);
+    try {
+      long cursor = after == null ? Long.MIN_VALUE : after;
+      return jdbcTemplate.queryForObject(SQL_SELECT_PAGE_VERSION, HorseJdbcDao::mapVersion, cursor, limit);
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching the version of a page of horses", e);
+    }
+  }
+
+  @Override
+  public String searchVersion(HorseSearchDto requestParameters) {
+    LOG.trace("searchVersion({}), persistence", requestParameters);
+    try {
+      return jdbcTemplate.queryForObject(SQL_SELECT_SEARCH_PARENTS_VERSION, HorseJdbcDao::mapVersion,
+          requestParameters.name(), requestParameters.sex().toString());
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching the version of horses suggestions", e);
+    }
+  }
+
+  @Override
+  public String getAllVersion(HorseSearchDto parameters) {
+    LOG.trace("getAllVersion({}), persistence", parameters);
+    try {
+      var params = new ArrayList<>();
+      String query = searchQuery(SEARCH_VERSION_COLUMNS, parameters, params);
+      return jdbcTemplate.queryForObject(query, HorseJdbcDao::mapVersion, params.toArray());
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching the version of horses with given parameters", e);
+    }
+  }
+
+  @Override
+  public String getAllByIdVersion(Collection<Long> ids) {
+    LOG.trace("getAllByIdVersion({}), persistence", ids.size());
+    if (ids.isEmpty()) {
+      return mapVersion(0, 0);
+    }
+    try {
+      return jdbcNamed.queryForObject(SQL_SELECT_BY_IDS_VERSION, new MapSqlParameterSource("ids", ids), HorseJdbcDao::mapVersion);
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching the version of horses by ID", e);
+    }
+  }
+
+  @Override
+  public String getFamilyTreeVersion(HorseFamilyTreeDto parameters) {
+    LOG.trace("getFamilyTreeVersion({}), persistence", parameters);
+    try {
+      return jdbcTemplate.queryForObject(SQL_SELECT_FAMILY_TREE_VERSION, HorseJdbcDao::mapVersion,
+          parameters.id(), parameters.generations(), parameters.generations());
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching the version of the family tree of horse", e);
+    }
+  }
+
+  /**
+   * The columns of a list version: the number of horses, and a fingerprint of their {@code (id, version)} pairs.
+   * Each pair is hashed to 64 bits and the hashes are combined with XOR, so unlike sums of IDs and versions,
+   * horses leaving and entering a list at the same time can not cancel each other out.
+   */
+  private static String versionColumns(String id, String version) {
+    return "COUNT(*), BIT_XOR_AGG(CAST(SUBSTRING(HASH('SHA-256', " + id + " || ':' || " + version + "), 1, 8) AS BIGINT))";
+  }
+
+  private static String mapVersion(ResultSet result, int rownum) throws SQLException {
+    // the fingerprint is null for an empty list, which getLong reads as 0
+    return mapVersion(result.getLong(1), result.getLong(2));
+  }
+
+  private static String mapVersion(long count, long fingerprint) {
+    return count + "." + Long.toHexString(fingerprint);
+  }
+
+  private static String versionOrNone(ResultSet result, String column) throws SQLException {
+    Long version = result.getObject(column, Long.class);
+    return version == null ? "-" : version.toString();
+  }
+
+  @Override
+  @Transactional
+  public Horse update(HorseDetailDto horse, Long expectedVersion) throws NotFoundException, VersionConflictException {
+    LOG.trace("update({}, {}), persistence", horse, expectedVersion);
+    try {
+      boolean parentsChanged = ancestorClosure && jdbcTemplate.query(SQL_SELECT_PARENT_IDS,
+          (result, rownum) -> !Objects.equals(result.getObject("mother_id", Long.class), horse.motherId())
+              || !Objects.equals(result.getObject("father_id", Long.class), horse.fatherId()),
+          horse.id()).contains(true);
       KeyHolder keyHolder = new GeneratedKeyHolder();
       int updated = jdbcTemplate.update(connection -> {
-        PreparedStatement stmt = connection.prepareStatement(SQL_UPDATE,
+        PreparedStatement stmt = connection.prepareStatement(expectedVersion == null ? SQL_UPDATE : SQL_UPDATE + SQL_VERSION_CONDITION,
             Statement.RETURN_GENERATED_KEYS);
         stmt.setString(1, horse.name());
         stmt.setString(2, horse.description());
@@ -172,12 +666,22 @@ public class HorseJdbcDao implements HorseDao {
           stmt.setNull(7, java.sql.Types.NULL);
         }
         stmt.setLong(8, horse.id());
+        if (expectedVersion != null) {
+          stmt.setLong(9, expectedVersion);
+        }
         return stmt;
       }, keyHolder);
 
       if (updated == 0) {
+        if (expectedVersion != null && Boolean.TRUE.equals(jdbcTemplate.queryForObject(SQL_EXISTS, Boolean.class, horse.id()))) {
+          throw new VersionConflictException("Update of horse failed",
+              Collections.singletonList("The horse was changed in the meantime, version %d is outdated".formatted(expectedVersion)));
+        }
         throw new NotFoundException("Could not update horse with ID " + horse.id() + ", because it does not exist");
       }
+      if (parentsChanged) {
+        refreshAncestorClosure(jdbcTemplate.queryForList(SQL_SELECT_CLOSURE_DESCENDANTS, Long.class, horse.id()));
+      }
       return new Horse()
           .setId(horse.id())
           .setName(horse.name())
@@ -194,6 +698,7 @@ public class HorseJdbcDao implements HorseDao {
 
 
   @Override
+  @Transactional
   public Horse create(HorseDetailDto newHorse) {
     LOG.trace("create({}), persistence", newHorse);
     try {
@@ -222,7 +727,17 @@ public class HorseJdbcDao implements HorseDao {
         return stmt;
       }, keyHolder);
 
+      Number key = keyHolder.getKey();
+      if (key == null) {
+        // This should never happen. If it does, something is wrong with the DB or the way the prepared statement is set up.
+        throw new FatalException("Could not extract key for newly created horse. There is probably a programming error…");
+      }
+      if (ancestorClosure) {
+        refreshAncestorClosure(List.of(key.longValue()));
+      }
+
       return new Horse()
+          .setId(key.longValue())
           .setName(newHorse.name())
           .setDescription(newHorse.description())
           .setDateOfBirth(newHorse.dateOfBirth())
@@ -237,42 +752,349 @@ public class HorseJdbcDao implements HorseDao {
   }
 
   @Override
+  @Transactional
+  public List<Long> createAll(List<HorseBatchEntryDto> newHorses) {
+    LOG.trace("createAll({} horses), persistence", newHorses.size());
+    long[] ids = new long[newHorses.size()];
+    try {
+      int from = 0;
+      while (from < newHorses.size()) {
+        // a run ends before the first horse with a parent in the same run, as that parent has no ID yet
+        int to = from;
+        while (to < newHorses.size() && to - from < INSERT_BATCH_SIZE && !hasParentAtOrAfter(newHorses.get(to), from)) {
+          to++;
+        }
+        insertRun(newHorses, ids, from, to);
+        from = to;
+      }
+      List<Long> created = Arrays.stream(ids).boxed().toList();
+      if (ancestorClosure && !created.isEmpty()) {
+        refreshAncestorClosure(created);
+      }
+      return created;
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while creating horses", e);
+    }
+  }
+
+  private static boolean hasParentAtOrAfter(HorseBatchEntryDto horse, int index) {
+    return (horse.motherIndex() != null && horse.motherIndex() >= index)
+        || (horse.fatherIndex() != null && horse.fatherIndex() >= index);
+  }
+
+  /**
+   * Insert the horses from {@code from} (inclusive) to {@code to} (exclusive) as one JDBC batch,
+   * and store their generated IDs in {@code ids}.
+   */
+  private void insertRun(List<HorseBatchEntryDto> newHorses, long[] ids, int from, int to) {
+    // JdbcTemplate.batchUpdate can not return generated keys, so the batch is run on the statement directly
+    jdbcTemplate.execute(connection -> connection.prepareStatement(SQL_INSERT_BATCH, Statement.RETURN_GENERATED_KEYS), (PreparedStatement stmt) -> {
+      for (int i = from; i < to; i++) {
+        HorseBatchEntryDto horse = newHorses.get(i);
+        stmt.setString(1, horse.name());
+        stmt.setString(2, horse.description());
+        stmt.setDate(3, Date.valueOf(horse.dateOfBirth()));
+        stmt.setString(4, horse.sex().toString());
+        stmt.setObject(5, horse.ownerId(), java.sql.Types.BIGINT);
+        stmt.setObject(6, horse.motherIndex() != null ? (Long) ids[horse.motherIndex()] : horse.motherId(), java.sql.Types.BIGINT);
+        stmt.setObject(7, horse.fatherIndex() != null ? (Long) ids[horse.fatherIndex()] : horse.fatherId(), java.sql.Types.BIGINT);
+        stmt.setString(8, horse.externalId());
+        stmt.addBatch();
+      }
+      stmt.executeBatch();
+      int i = from;
+      try (ResultSet keys = stmt.getGeneratedKeys()) {
+        while (keys.next()) {
+          ids[i++] = keys.getLong(1);
+        }
+      }
+      if (i != to) {
+        // This should never happen. If it does, the driver does not report the keys of batched inserts.
+        throw new FatalException("Could not extract keys for %d newly created horses, got %d".formatted(to - from, i - from));
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public Map<String, Horse> getAllByExternalId(Collection<String> externalIds) {
+    LOG.trace("getAllByExternalId({} IDs), persistence", externalIds.size());
+    Map<String, Horse> horses = new HashMap<>();
+    List<String> distinct = externalIds.stream().distinct().toList();
+    try {
+      for (int from = 0; from < distinct.size(); from += SELECT_BY_IDS_BATCH_SIZE) {
+        var params = new MapSqlParameterSource("ids", distinct.subList(from, Math.min(from + SELECT_BY_IDS_BATCH_SIZE, distinct.size())));
+        jdbcNamed.query(SQL_SELECT_BY_EXTERNAL_IDS, params, (ResultSet result) -> {
+          horses.put(result.getString(7), mapNodeRow(result, 0));
+        });
+      }
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching horses by their external IDs", e);
+    }
+    return horses;
+  }
+
+  @Override
+  public List<Horse> getAllByName(Collection<String> names) {
+    LOG.trace("getAllByName({} names), persistence", names.size());
+    List<String> distinct = names.stream().distinct().toList();
+    List<Horse> horses = new ArrayList<>();
+    try {
+      for (int from = 0; from < distinct.size(); from += SELECT_BY_IDS_BATCH_SIZE) {
+        var params = new MapSqlParameterSource("names", distinct.subList(from, Math.min(from + SELECT_BY_IDS_BATCH_SIZE, distinct.size())));
+        horses.addAll(jdbcNamed.query(SQL_SELECT_BY_NAMES, params, this::mapNodeRow));
+      }
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching horses by their names", e);
+    }
+    return horses;
+  }
+
+  @Override
+  public List<Horse> getAllById(Collection<Long> ids) {
+    LOG.trace("getAllById({}), persistence", ids);
+    List<Long> distinct = ids.stream().distinct().toList();
+    List<Horse> horses = new ArrayList<>();
+    try {
+      for (int from = 0; from < distinct.size(); from += SELECT_BY_IDS_BATCH_SIZE) {
+        var params = new MapSqlParameterSource("ids", distinct.subList(from, Math.min(from + SELECT_BY_IDS_BATCH_SIZE, distinct.size())));
+        horses.addAll(jdbcNamed.query(SQL_SELECT_BY_IDS, params, this::mapRow));
+      }
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while fetching horses by their IDs", e);
+    }
+    return horses;
+  }
+
+  @Override
+  @Transactional
   public void delete(long id) {
     LOG.trace("delete({}), persistence", id);
+    // the rows of the horse itself go with it (ON DELETE CASCADE), its descendants lose it as ancestor
+    List<Long> descendants = ancestorClosure
+        ? jdbcTemplate.queryForList(SQL_SELECT_CLOSURE_DESCENDANTS, Long.class, id)
+        : List.of();
     KeyHolder keyHolder = new GeneratedKeyHolder();
     jdbcTemplate.update(connection -> {
       PreparedStatement stmt = connection.prepareStatement(SQL_DELETE, Statement.RETURN_GENERATED_KEYS);
       stmt.setLong(1, id);
       return stmt;
     }, keyHolder);
+    refreshAncestorClosure(descendants.stream().filter(descendant -> descendant != id).toList());
+  }
+
+  @Override
+  public boolean isAncestor(long ancestorId, long descendantId) {
+    LOG.trace("isAncestor({}, {}), persistence", ancestorId, descendantId);
+    try {
+      Integer count = ancestorClosure
+          ? jdbcTemplate.queryForObject(SQL_IS_ANCESTOR_FROM_CLOSURE, Integer.class, descendantId, ancestorId)
+          : jdbcTemplate.queryForObject(SQL_IS_ANCESTOR, Integer.class, descendantId, ancestorId);
+      return count != null && count > 0;
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while checking the ancestors of horse", e);
+    }
+  }
+
+  @Override
+  public boolean hasChildrenAsMother(long id) {
+    LOG.trace("hasChildrenAsMother({}), persistence", id);
+    try {
+      return Boolean.TRUE.equals(jdbcTemplate.queryForObject(SQL_HAS_CHILDREN_AS_MOTHER, Boolean.class, id));
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while checking the children of horse", e);
+    }
+  }
+
+  @Override
+  public boolean hasChildrenAsFather(long id) {
+    LOG.trace("hasChildrenAsFather({}), persistence", id);
+    try {
+      return Boolean.TRUE.equals(jdbcTemplate.queryForObject(SQL_HAS_CHILDREN_AS_FATHER, Boolean.class, id));
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while checking the children of horse", e);
+    }
+  }
+
+  @Override
+  @Transactional
+  public void rebuildAncestorClosure() {
+    LOG.trace("rebuildAncestorClosure(), persistence");
+    try {
+      jdbcTemplate.update(SQL_DELETE_CLOSURE_ALL);
+      jdbcTemplate.update(SQL_INSERT_CLOSURE_SELF);
+      insertClosureGenerations("", new MapSqlParameterSource());
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while rebuilding the ancestor closure", e);
+    }
+  }
+
+  /**
+   * Recompute the ancestor closure rows of the given horses.
+   * All descendants of a horse whose parents changed need to be passed, as their ancestors changed as well.
+   */
+  private void refreshAncestorClosure(List<Long> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    try {
+      var params = new MapSqlParameterSource("ids", ids);
+      jdbcNamed.update(SQL_DELETE_CLOSURE, params);
+      jdbcNamed.update(SQL_INSERT_CLOSURE_SELF + " WHERE id IN (:ids)", params);
+      insertClosureGenerations(" AND c.descendant_id IN (:ids)", params);
+      LOG.debug("Refreshed ancestor closure of {} horses", ids.size());
+    } catch (DataAccessException e) {
+      throw new FatalException("Internal error occurred while updating the ancestor closure", e);
+    }
+  }
+
+  /**
+   * Add the ancestors of the horses restricted by {@code condition}, one generation per statement, until there are no more.
+   * Requires the rows of the horses themselves (depth 0) to be present.
+   */
+  private void insertClosureGenerations(String condition, MapSqlParameterSource params) {
+    int inserted;
+    int depth = 0;
+    do {
+      depth++;
+      inserted = jdbcNamed.update(SQL_INSERT_CLOSURE_GENERATION + condition, params.addValue("depth", depth));
+    } while (inserted > 0);
   }
 
   @Override
   public List<Horse> getFamilyTree(HorseFamilyTreeDto parameters) {
     LOG.trace("getFamilyTree({}), persistence", parameters);
     try {
+      if (ancestorClosure) {
+        return jdbcTemplate.query(SQL_GET_FAMILY_TREE_FROM_CLOSURE, this::mapNodeRow, parameters.id(), parameters.generations());
+      }
       var params = new ArrayList<>();
-      var query = SQL_GET_FAMILY_TREE;
       params.add(parameters.id());
+      // once to stop the recursion at the requested depth, once to filter the result
       params.add(parameters.generations());
-      return jdbcTemplate.query(query, this::mapRow, params.toArray());
+      params.add(parameters.generations());
+      return jdbcTemplate.query(SQL_GET_FAMILY_TREE, this::mapNodeRow, params.toArray());
     } catch (DataAccessException e) {
       throw new FatalException("Internal error occurred while getting family tree of horse", e);
     }
   }
 
 
+  /**
+   * The columns of {@code projection}, qualified by the table alias {@code alias}.
+   */
+  private static String qualified(String alias, String projection) {
+    return alias + "." + projection.replace(", ", ", " + alias + ".");
+  }
+
+  /**
+   * The {@value #DETAIL_COLUMN_COUNT} columns of a horse (aliased {@code horseAlias}) and its owner (aliased {@code ownerAlias}),
+   * in the order read by {@link #mapDetail(ResultSet, int, HorseDetailDto, HorseDetailDto)}.
+   */
+  private static String detailColumns(String horseAlias, String ownerAlias) {
+    return qualified(horseAlias, "id, name, description, date_of_birth, sex, owner_id") + ", "
+        + qualified(ownerAlias, "first_name, last_name, email");
+  }
+
+  private HorseDetailDto mapDetailRow(ResultSet result, int rownum) throws SQLException {
+    return mapDetail(result, 1,
+        mapDetail(result, 1 + DETAIL_COLUMN_COUNT, null, null),
+        mapDetail(result, 1 + 2 * DETAIL_COLUMN_COUNT, null, null));
+  }
+
+  /**
+   * Map the detail columns starting at column index {@code first}.
+   */
+  private HorseDetailDto mapDetail(ResultSet result, int first, HorseDetailDto mother, HorseDetailDto father) throws SQLException {
+    Long id = result.getObject(first, Long.class);
+    if (id == null) {
+      return null;
+    }
+    OwnerDto owner = mapOwner(result, result.getObject(first + 5, Long.class), first + 6);
+    return new HorseDetailDto(
+        id,
+        result.getString(first + 1),
+        result.getString(first + 2),
+        result.getDate(first + 3).toLocalDate(),
+        Sex.valueOf(result.getString(first + 4)),
+        owner,
+        mother,
+        father);
+  }
+
+  /**
+   * Map a row of {@link #HORSE_COLUMNS}.
+   */
   private Horse mapRow(ResultSet result, int rownum) throws SQLException {
-    LOG.trace("mapRow({}), persistence", result);
     return new Horse()
-        .setId(result.getLong("id"))
-        .setName(result.getString("name"))
-        .setDescription(result.getString("description"))
-        .setDateOfBirth(result.getDate("date_of_birth").toLocalDate())
-        .setSex(Sex.valueOf(result.getString("sex")))
-        .setOwnerId(result.getObject("owner_id", Long.class))
-        .setMotherId(result.getObject("mother_id", Long.class))
-        .setFatherId(result.getObject("father_id", Long.class))
+        .setId(result.getLong(1))
+        .setName(result.getString(2))
+        .setDescription(result.getString(3))
+        .setDateOfBirth(result.getDate(4).toLocalDate())
+        .setSex(Sex.valueOf(result.getString(5)))
+        .setOwnerId(result.getObject(6, Long.class))
+        .setMotherId(result.getObject(7, Long.class))
+        .setFatherId(result.getObject(8, Long.class))
         ;
   }
+
+  /**
+   * Map a row of {@link #LIST_COLUMNS} or {@link #SEARCH_LIST_COLUMNS}.
+   */
+  private HorseListDto mapListRow(ResultSet result, int rownum) throws SQLException {
+    return new HorseListDto(
+        result.getLong(1),
+        result.getString(2),
+        result.getString(3),
+        result.getDate(4).toLocalDate(),
+        Sex.valueOf(result.getString(5)),
+        mapOwner(result, result.getObject(6, Long.class), 9));
+  }
+
+  /**
+   * Map a row of {@link #SUGGESTION_COLUMNS} followed by the owner; the description is left empty.
+   */
+  private HorseListDto mapSuggestionListRow(ResultSet result, int rownum) throws SQLException {
+    return new HorseListDto(
+        result.getLong(1),
+        result.getString(2),
+        null,
+        result.getDate(3).toLocalDate(),
+        Sex.valueOf(result.getString(4)),
+        mapOwner(result, result.getObject(5, Long.class), 6));
+  }
+
+  /**
+   * Map the owner columns first name, last name and email starting at column index {@code first}.
+   */
+  private static OwnerDto mapOwner(ResultSet result, Long ownerId, int first) throws SQLException {
+    return ownerId == null
+        ? null
+        : new OwnerDto(ownerId, result.getString(first), result.getString(first + 1), result.getString(first + 2));
+  }
+
+  /**
+   * Map a row of {@link #SUGGESTION_COLUMNS}; description and parents are left empty.
+   */
+  private Horse mapSuggestionRow(ResultSet result, int rownum) throws SQLException {
+    return new Horse()
+        .setId(result.getLong(1))
+        .setName(result.getString(2))
+        .setDateOfBirth(result.getDate(3).toLocalDate())
+        .setSex(Sex.valueOf(result.getString(4)))
+        .setOwnerId(result.getObject(5, Long.class));
+  }
+
+  /**
+   * Map a row of {@link #NODE_COLUMNS}; description and owner are left empty.
+   */
+  private Horse mapNodeRow(ResultSet result, int rownum) throws SQLException {
+    return new Horse()
+        .setId(result.getLong(1))
+        .setName(result.getString(2))
+        .setDateOfBirth(result.getDate(3).toLocalDate())
+        .setSex(Sex.valueOf(result.getString(4)))
+        .setMotherId(result.getObject(5, Long.class))
+        .setFatherId(result.getObject(6, Long.class));
+  }
 }
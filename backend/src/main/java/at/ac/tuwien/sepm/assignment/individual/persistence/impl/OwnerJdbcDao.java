@@ -5,10 +5,12 @@ import at.ac.tuwien.sepm.assignment.individual.dto.OwnerSearchDto;
 import at.ac.tuwien.sepm.assignment.individual.entity.Owner;
 import at.ac.tuwien.sepm.assignment.individual.exception.FatalException;
 import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
+import at.ac.tuwien.sepm.assignment.individual.exception.ValidationException;
 import at.ac.tuwien.sepm.assignment.individual.persistence.OwnerDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -28,9 +30,11 @@ import java.util.List;
 public class OwnerJdbcDao implements OwnerDao {
   private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   private static final String TABLE_NAME = "owner";
-  private static final String SQL_SELECT_BY_ID = "SELECT * FROM " + TABLE_NAME + " WHERE id = ?";
-  private static final String SQL_SELECT_ALL = "SELECT * FROM " + TABLE_NAME + " WHERE id IN (:ids)";
-  private static final String SQL_SELECT_SEARCH = "SELECT * FROM " + TABLE_NAME
+  // in the order read by mapRow
+  private static final String OWNER_COLUMNS = "id, first_name, last_name, email";
+  private static final String SQL_SELECT_BY_ID = "SELECT " + OWNER_COLUMNS + " FROM " + TABLE_NAME + " WHERE id = ?";
+  private static final String SQL_SELECT_ALL = "SELECT " + OWNER_COLUMNS + " FROM " + TABLE_NAME + " WHERE id IN (:ids)";
+  private static final String SQL_SELECT_SEARCH = "SELECT " + OWNER_COLUMNS + " FROM " + TABLE_NAME
       + " WHERE UPPER(first_name||' '||last_name) like UPPER('%'||COALESCE(?, '')||'%')";
   private static final String SQL_SELECT_SEARCH_LIMIT_CLAUSE = " LIMIT ?";
   private static final String SQL_CREATE = "INSERT INTO " + TABLE_NAME + " (first_name, last_name, email) VALUES (?, ?, ?)";
@@ -63,7 +67,7 @@ public class OwnerJdbcDao implements OwnerDao {
   }
 
   @Override
-  public Owner create(OwnerCreateDto newOwner) throws FatalException {
+  public Owner create(OwnerCreateDto newOwner) throws ValidationException {
     LOG.trace("create({})", newOwner);
 
     try {
@@ -88,6 +92,10 @@ public class OwnerJdbcDao implements OwnerDao {
           .setLastName(newOwner.lastName())
           .setEmail(newOwner.email())
           ;
+    } catch (DuplicateKeyException e) {
+      // the only unique column besides the generated ID
+      throw new ValidationException("Validation of owner to create failed",
+          Collections.singletonList("Email is already used. Please provide another email"));
     } catch (DataAccessException e) {
       throw new FatalException(e.getMessage(), e);
     }
@@ -123,12 +131,11 @@ public class OwnerJdbcDao implements OwnerDao {
   }
 
   private Owner mapRow(ResultSet resultSet, int i) throws SQLException {
-    LOG.trace("mapRow({})", resultSet);
     return new Owner()
-        .setId(resultSet.getLong("id"))
-        .setFirstName(resultSet.getString("first_name"))
-        .setLastName(resultSet.getString("last_name"))
-        .setEmail(resultSet.getString("email"))
+        .setId(resultSet.getLong(1))
+        .setFirstName(resultSet.getString(2))
+        .setLastName(resultSet.getString(3))
+        .setEmail(resultSet.getString(4))
         ;
   }
 }
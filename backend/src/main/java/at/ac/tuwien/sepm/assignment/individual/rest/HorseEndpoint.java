@@ -1,61 +1,193 @@
 package at.ac.tuwien.sepm.assignment.individual.rest;
 
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseFamilyTreeDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseImportStatusDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseInbreedingDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseListDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseRelationshipDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseSearchDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidateSearchDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidatesDto;
 import at.ac.tuwien.sepm.assignment.individual.exception.ConflictException;
 import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
 import at.ac.tuwien.sepm.assignment.individual.exception.ValidationException;
+import at.ac.tuwien.sepm.assignment.individual.service.HorseExportService;
+import at.ac.tuwien.sepm.assignment.individual.service.HorseImportService;
 import at.ac.tuwien.sepm.assignment.individual.service.HorseService;
+import at.ac.tuwien.sepm.assignment.individual.type.RecordFormat;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping(path = HorseEndpoint.BASE_PATH)
 public class HorseEndpoint {
   private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   static final String BASE_PATH = "/horses";
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  private static final String TEXT_CSV_VALUE = "text/csv";
 
   private final HorseService service;
+  private final HorseImportService importService;
+  private final HorseExportService exportService;
+  private final ObjectMapper objectMapper;
 
-  public HorseEndpoint(HorseService service) {
+  public HorseEndpoint(HorseService service, HorseImportService importService, HorseExportService exportService,
+                       ObjectMapper objectMapper) {
     this.service = service;
+    this.importService = importService;
+    this.exportService = exportService;
+    this.objectMapper = objectMapper;
   }
 
   @GetMapping
-  @ResponseStatus(HttpStatus.OK)
-  public Stream<HorseListDto> searchHorses(HorseSearchDto searchParameters) {
+  public ResponseEntity<Stream<HorseListDto>> searchHorses(HorseSearchDto searchParameters, WebRequest request) throws ValidationException {
     LOG.info("GET " + BASE_PATH);
     LOG.debug("request parameters: {}", searchParameters);
-    if (searchParameters.name() == null) {
-      return service.allHorses();
-    } else {
-      return service.allHorses(searchParameters);
+    // like for single horses, the versions are much cheaper to get than the lists, so check them first
+    if (searchParameters.name() != null) {
+      String tag = entityTag(service.allHorsesVersion(searchParameters));
+      if (request.checkNotModified(tag)) {
+        return null;
+      }
+      return ResponseEntity.ok().eTag(tag).body(service.allHorses(searchParameters));
+    }
+    if (searchParameters.after() == null && searchParameters.pageSize() == null) {
+      String tag = entityTag(service.allHorsesVersion());
+      if (request.checkNotModified(tag)) {
+        return null;
+      }
+      return ResponseEntity.ok().eTag(tag).body(service.allHorses());
+    }
+    int pageSize = searchParameters.pageSize() == null
+        ? DEFAULT_PAGE_SIZE
+        : Math.min(searchParameters.pageSize(), MAX_PAGE_SIZE);
+    String tag = entityTag(service.horsePageVersion(searchParameters.after(), pageSize));
+    if (request.checkNotModified(tag)) {
+      return null;
+    }
+    List<HorseListDto> page = service.horsePage(searchParameters.after(), pageSize).toList();
+    var response = ResponseEntity.ok().eTag(tag);
+    if (page.size() == pageSize) {
+      response.header(NEXT_CURSOR_HEADER, String.valueOf(page.get(page.size() - 1).id()));
     }
+    return response.body(page.stream());
+  }
+
+  /**
+   * Get the horses with the given IDs in one request, e.g. all horses shown on a family tree page.
+   * IDs of horses that do not exist are skipped.
+   */
+  @GetMapping(params = "ids")
+  public ResponseEntity<Stream<HorseListDto>> getHorsesById(@RequestParam List<Long> ids, WebRequest request) throws ValidationException {
+    LOG.info("GET " + BASE_PATH + "?ids={}", ids);
+    String tag = entityTag(service.horsesByIdVersion(ids));
+    if (request.checkNotModified(tag)) {
+      return null;
+    }
+    return ResponseEntity.ok().eTag(tag).body(service.horsesById(ids));
+  }
+
+  @GetMapping(path = "stream", produces = MediaType.APPLICATION_JSON_VALUE)
+  public StreamingResponseBody streamHorses() {
+    LOG.info("GET " + BASE_PATH + "/stream");
+    return outputStream -> {
+      try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+        generator.writeStartArray();
+        generator.flush();
+        service.streamAllHorses(horse -> {
+          try {
+            generator.writeObject(horse);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        generator.writeEndArray();
+      }
+    };
+  }
 
+  /**
+   * Export all horses, with their owner and parents by ID, as NDJSON or CSV.
+   * The export is written while it is read from the database, gzip compressed if the client accepts it.
+   * If the connection drops, the export can be resumed by passing the ID of the last horse received as {@code after}.
+   */
+  @GetMapping("export")
+  public ResponseEntity<StreamingResponseBody> exportHorses(
+      @RequestParam(defaultValue = "ndjson") String format,
+      @RequestParam(required = false) Long after,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) throws ValidationException {
+    LOG.info("GET " + BASE_PATH + "/export?format={}&after={}", format, after);
+    RecordFormat recordFormat;
+    try {
+      recordFormat = RecordFormat.valueOf(format.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new ValidationException("Validation of export request failed", Collections.singletonList("The format must be ndjson or csv"));
+    }
+    boolean gzip = acceptsGzip(acceptEncoding);
+    var response = ResponseEntity.ok()
+        .contentType(recordFormat == RecordFormat.CSV ? MediaType.valueOf(TEXT_CSV_VALUE) : MediaType.APPLICATION_NDJSON)
+        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (gzip) {
+      response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+    }
+    return response.body(outputStream -> {
+      if (gzip) {
+        var compressed = new GZIPOutputStream(outputStream);
+        exportService.exportHorses(recordFormat, after, compressed);
+        compressed.finish();
+      } else {
+        exportService.exportHorses(recordFormat, after, outputStream);
+      }
+    });
   }
 
   @GetMapping("{id}")
-  @ResponseStatus(HttpStatus.OK)
-  public HorseDetailDto getById(@PathVariable long id) {
+  public ResponseEntity<HorseDetailDto> getById(@PathVariable long id, WebRequest request) {
     LOG.info("GET " + BASE_PATH + "/{}", id);
     try {
-      return service.getById(id);
+      // the version is much cheaper to get than the detail, so check it first
+      String tag = entityTag(service.getDetailVersion(id));
+      if (request.checkNotModified(tag)) {
+        // status 304 and the ETag header are already set
+        return null;
+      }
+      return ResponseEntity.ok().eTag(tag).body(service.getById(id));
     } catch (NotFoundException e) {
       HttpStatus status = HttpStatus.NOT_FOUND;
       logClientError(status, "Horse to get details of not found", e);
@@ -65,12 +197,14 @@ public class HorseEndpoint {
 
 
   @PutMapping("{id}")
-  @ResponseStatus(HttpStatus.OK)
-  public HorseDetailDto update(@PathVariable long id, @RequestBody HorseDetailDto toUpdate) throws ValidationException, ConflictException {
+  public ResponseEntity<HorseDetailDto> update(@PathVariable long id, @RequestBody HorseDetailDto toUpdate,
+                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
+      throws ValidationException, ConflictException {
     LOG.info("PUT " + BASE_PATH + "/{}", toUpdate);
     LOG.debug("Body of request:\n{}", toUpdate);
     try {
-      return service.update(toUpdate.withId(id));
+      HorseDetailDto updated = service.update(toUpdate.withId(id), expectedVersion(ifMatch));
+      return ResponseEntity.ok().eTag(entityTag(service.getDetailVersion(id))).body(updated);
     } catch (NotFoundException e) {
       HttpStatus status = HttpStatus.NOT_FOUND;
       logClientError(status, "Horse to update not found", e);
@@ -92,6 +226,55 @@ public class HorseEndpoint {
     }
   }
 
+  @PostMapping("batch")
+  @ResponseStatus(HttpStatus.CREATED)
+  public List<Long> createAll(@RequestBody List<HorseBatchEntryDto> toAdd) throws ValidationException, ConflictException {
+    LOG.info("POST " + BASE_PATH + "/batch ({} horses)", toAdd.size());
+    return service.createAll(toAdd);
+  }
+
+  /**
+   * Start an import of horses from a stream of records, one JSON object per line or CSV with a header row.
+   * The body is spooled to disk and imported in the background, so its size is not limited by memory.
+   * The response points to the status of the import, which can be polled until it is completed or failed.
+   */
+  @PostMapping(path = "import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, TEXT_CSV_VALUE})
+  public ResponseEntity<HorseImportStatusDto> importHorses(@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType, InputStream body) {
+    LOG.info("POST " + BASE_PATH + "/import ({})", contentType);
+    RecordFormat format = contentType.isCompatibleWith(MediaType.APPLICATION_NDJSON)
+        ? RecordFormat.NDJSON
+        : RecordFormat.CSV;
+    HorseImportStatusDto status;
+    try {
+      status = importService.startImport(format, body);
+    } catch (IOException e) {
+      HttpStatus httpStatus = HttpStatus.BAD_REQUEST;
+      logClientError(httpStatus, "Import could not be read", e);
+      throw new ResponseStatusException(httpStatus, "The records to import could not be read", e);
+    }
+    return ResponseEntity.accepted()
+        .location(URI.create(BASE_PATH + "/imports/" + status.id()))
+        .body(status);
+  }
+
+  @GetMapping("imports")
+  public List<HorseImportStatusDto> getImports() {
+    LOG.info("GET " + BASE_PATH + "/imports");
+    return importService.getImports();
+  }
+
+  @GetMapping("imports/{id}")
+  public HorseImportStatusDto getImport(@PathVariable long id) {
+    LOG.info("GET " + BASE_PATH + "/imports/{}", id);
+    try {
+      return importService.getImport(id);
+    } catch (NotFoundException e) {
+      HttpStatus status = HttpStatus.NOT_FOUND;
+      logClientError(status, "Import not found", e);
+      throw new ResponseStatusException(status, e.getMessage(), e);
+    }
+  }
+
   @DeleteMapping("{id}")
   @ResponseStatus(HttpStatus.NO_CONTENT)
   public void delete(@PathVariable long id) {
@@ -106,11 +289,14 @@ public class HorseEndpoint {
   }
 
   @GetMapping("{id}/familytree")
-  @ResponseStatus(HttpStatus.OK)
-  public Stream<HorseFamilyTreeDto> getFamilyTree(HorseFamilyTreeDto fromHorse) throws ValidationException {
+  public ResponseEntity<Stream<HorseFamilyTreeDto>> getFamilyTree(HorseFamilyTreeDto fromHorse, WebRequest request) throws ValidationException {
     LOG.info("GET FAMILY TREE " + BASE_PATH + "/{}", fromHorse);
     try {
-      return service.getFamilyTree(fromHorse);
+      String tag = entityTag(service.getFamilyTreeVersion(fromHorse));
+      if (request.checkNotModified(tag)) {
+        return null;
+      }
+      return ResponseEntity.ok().eTag(tag).body(service.getFamilyTree(fromHorse));
     } catch (NotFoundException e) {
       HttpStatus status = HttpStatus.NOT_FOUND;
       logClientError(status, e.getMessage(), e);
@@ -118,6 +304,99 @@ public class HorseEndpoint {
     }
   }
 
+  @GetMapping("{id}/descendants")
+  @ResponseStatus(HttpStatus.OK)
+  public Stream<HorseFamilyTreeDto> getDescendants(@PathVariable long id, @RequestParam long generations) throws ValidationException {
+    LOG.info("GET " + BASE_PATH + "/{}/descendants?generations={}", id, generations);
+    try {
+      return service.getDescendants(id, generations);
+    } catch (NotFoundException e) {
+      HttpStatus status = HttpStatus.NOT_FOUND;
+      logClientError(status, e.getMessage(), e);
+      throw new ResponseStatusException(status, e.getMessage(), e);
+    }
+  }
+
+  @GetMapping("{id}/inbreeding")
+  @ResponseStatus(HttpStatus.OK)
+  public HorseInbreedingDto getInbreeding(@PathVariable long id, @RequestParam long generations) throws ValidationException {
+    LOG.info("GET " + BASE_PATH + "/{}/inbreeding?generations={}", id, generations);
+    try {
+      return service.getInbreeding(id, generations);
+    } catch (NotFoundException e) {
+      HttpStatus status = HttpStatus.NOT_FOUND;
+      logClientError(status, e.getMessage(), e);
+      throw new ResponseStatusException(status, e.getMessage(), e);
+    }
+  }
+
+  @PostMapping("{id}/mating-candidates")
+  @ResponseStatus(HttpStatus.OK)
+  public MatingCandidatesDto getMatingCandidates(@PathVariable long id, @RequestBody(required = false) MatingCandidateSearchDto parameters)
+      throws ValidationException {
+    LOG.info("POST " + BASE_PATH + "/{}/mating-candidates {}", id, parameters);
+    try {
+      return service.getMatingCandidates(id, parameters == null ? new MatingCandidateSearchDto(null, null, null) : parameters);
+    } catch (NotFoundException e) {
+      HttpStatus status = HttpStatus.NOT_FOUND;
+      logClientError(status, e.getMessage(), e);
+      throw new ResponseStatusException(status, e.getMessage(), e);
+    }
+  }
+
+  @GetMapping("{id}/relationship/{otherId}")
+  @ResponseStatus(HttpStatus.OK)
+  public HorseRelationshipDto getRelationship(@PathVariable long id, @PathVariable long otherId) {
+    LOG.info("GET " + BASE_PATH + "/{}/relationship/{}", id, otherId);
+    try {
+      return service.getRelationship(id, otherId);
+    } catch (NotFoundException e) {
+      HttpStatus status = HttpStatus.NOT_FOUND;
+      logClientError(status, e.getMessage(), e);
+      throw new ResponseStatusException(status, e.getMessage(), e);
+    }
+  }
+
+  /**
+   * The version of the horse an update is based on, taken from the ETag of its detail in the {@code If-Match} header.
+   *
+   * @return the version, or {@code null} if any version may be overwritten
+   */
+  private static Long expectedVersion(String ifMatch) throws ValidationException {
+    if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+      return null;
+    }
+    String tag = ifMatch.trim();
+    if (tag.startsWith("\"") && tag.endsWith("\"") && tag.length() > 1) {
+      String version = tag.substring(1, tag.length() - 1);
+      int end = version.indexOf('.');
+      try {
+        return Long.parseLong(end < 0 ? version : version.substring(0, end));
+      } catch (NumberFormatException e) {
+        // handled below
+      }
+    }
+    throw new ValidationException("Validation of update failed",
+        Collections.singletonList("The If-Match header must contain the strong ETag of the horse"));
+  }
+
+  private static String entityTag(String version) {
+    return '"' + version + '"';
+  }
+
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
+  }
+
   private void logClientError(HttpStatus status, String message, Exception e) {
     LOG.warn("{} {}: {}: {}", status.value(), message, e.getClass().getSimpleName(), e.getMessage());
   }
@@ -0,0 +1,26 @@
+package at.ac.tuwien.sepm.assignment.individual.service;
+
+import at.ac.tuwien.sepm.assignment.individual.type.RecordFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Service for exporting all horses to other systems.
+ */
+public interface HorseExportService {
+  /**
+   * Write all horses with an ID greater than {@code after} to {@code output}, in ID order.
+   * <p>
+   * The horses are read from a forward-only cursor and written through a fixed size buffer,
+   * so the memory needed does not depend on the number of horses.
+   * An interrupted export can be resumed by passing the ID of the last horse received as {@code after}.
+   * </p>
+   *
+   * @param format the format to write
+   * @param after  the ID after which to start, {@code null} to export all horses
+   * @param output the stream to write to; it is not closed
+   * @throws IOException if writing to {@code output} fails
+   */
+  void exportHorses(RecordFormat format, Long after, OutputStream output) throws IOException;
+}
@@ -0,0 +1,60 @@
+package at.ac.tuwien.sepm.assignment.individual.service;
+
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseImportStatusDto;
+import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
+import at.ac.tuwien.sepm.assignment.individual.type.RecordFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Service for importing large numbers of horses from other registries.
+ */
+public interface HorseImportService {
+  /**
+   * Import the horses read from {@code input}, on the calling thread.
+   * <p>
+   * The input is read record by record, and the valid records are committed in chunks,
+   * so the memory needed does not depend on the size of the input.
+   * Invalid records are rejected and reported, without stopping the import.
+   * The input is only read as fast as the chunks can be committed.
+   * </p>
+   *
+   * @param format the format of the input
+   * @param input  the records to import
+   * @return the final status of the import
+   */
+  HorseImportStatusDto importHorses(RecordFormat format, InputStream input);
+
+  /**
+   * Start an import of the horses read from {@code input}, and return without waiting for it.
+   * <p>
+   * The input is copied to a temporary file first, so it can be read after the caller has returned.
+   * The records are then imported like by {@link #importHorses(RecordFormat, InputStream)} in the background,
+   * one import after the other. Meanwhile, the progress can be queried with {@link #getImport(long)}.
+   * </p>
+   *
+   * @param format the format of the input
+   * @param input  the records to import
+   * @return the status of the queued import, with its ID
+   * @throws IOException if the input can not be read or copied
+   */
+  HorseImportStatusDto startImport(RecordFormat format, InputStream input) throws IOException;
+
+  /**
+   * Get the status of the running and the most recently finished imports.
+   *
+   * @return the status of the imports, most recently started first
+   */
+  List<HorseImportStatusDto> getImports();
+
+  /**
+   * Get the status of an import.
+   *
+   * @param id the ID of the import
+   * @return the status of the import
+   * @throws NotFoundException if the import is not running, and not one of the most recently finished
+   */
+  HorseImportStatusDto getImport(long id) throws NotFoundException;
+}
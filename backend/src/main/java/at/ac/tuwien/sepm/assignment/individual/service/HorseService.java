@@ -1,13 +1,21 @@
 package at.ac.tuwien.sepm.assignment.individual.service;
 
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryResultDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseFamilyTreeDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseInbreedingDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseListDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseRelationshipDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseSearchDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidateSearchDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidatesDto;
 import at.ac.tuwien.sepm.assignment.individual.exception.ConflictException;
 import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
 import at.ac.tuwien.sepm.assignment.individual.exception.ValidationException;
 
+import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
@@ -21,6 +29,25 @@ public interface HorseService {
    */
   Stream<HorseListDto> allHorses();
 
+  /**
+   * Lists one page of the horses stored in the system, ordered by ID.
+   *
+   * @param after the ID of the last horse of the previous page, or {@code null} for the first page
+   * @param limit the maximum number of horses on the page
+   * @return at most {@code limit} horses with an ID greater than {@code after}
+   * @throws ValidationException if {@code limit} is not positive
+   */
+  Stream<HorseListDto> horsePage(Long after, int limit) throws ValidationException;
+
+  /**
+   * Hands all horses stored in the system to {@code action}, one at a time, in ID order.
+   * Unlike {@link #allHorses()} the horses are never collected in memory,
+   * which makes this suitable for writing very large listings directly to a response.
+   *
+   * @param action called once for every stored horse
+   */
+  void streamAllHorses(Consumer<HorseListDto> action);
+
   /**
    * Lists all horses stored in the system matching the given parameters.
    *
@@ -29,19 +56,37 @@ public interface HorseService {
    */
   Stream<HorseListDto> allHorses(HorseSearchDto searchParameters);
 
+  /**
+   * Lists the horses with the given IDs, fetched together instead of one request per horse.
+   * This is best effort, IDs of horses that do not exist are skipped.
+   *
+   * @param ids the IDs of the horses, at most 100
+   * @return the found horses, in the order of {@code ids}; every horse is contained once
+   * @throws ValidationException if no or too many IDs are given
+   */
+  Stream<HorseListDto> horsesById(List<Long> ids) throws ValidationException;
+
 
   /**
    * Updates the horse with the ID given in {@code horse}
    * with the data given in {@code horse}
    * in the persistent data store.
+   * <p>
+   * If {@code expectedVersion} is given, the update fails if the horse was updated since that version was read,
+   * so concurrent edits do not silently overwrite each other.
+   * </p>
    *
-   * @param horse the horse to update
+   * @param horse           the horse to update
+   * @param expectedVersion the version of the horse the update is based on, as part of {@link #getDetailVersion(long)},
+   *                        or {@code null} to overwrite any version
    * @return he updated horse
    * @throws NotFoundException   if the horse with given ID does not exist in the persistent data store
    * @throws ValidationException if the update data given for the horse is in itself incorrect (description too long, no name, …)
-   * @throws ConflictException   if the update data given for the horse is in conflict the data currently in the system (owner does not exist, …)
+   * @throws ConflictException   if the update data given for the horse is in conflict the data currently in the system (owner does not exist, …),
+   *                             or, as {@link at.ac.tuwien.sepm.assignment.individual.exception.VersionConflictException},
+   *                             the horse was updated since {@code expectedVersion}
    */
-  HorseDetailDto update(HorseDetailDto horse) throws NotFoundException, ValidationException, ConflictException;
+  HorseDetailDto update(HorseDetailDto horse, Long expectedVersion) throws NotFoundException, ValidationException, ConflictException;
 
 
   /**
@@ -55,6 +100,60 @@ public interface HorseService {
    */
   HorseDetailDto getById(long id) throws NotFoundException;
 
+  /**
+   * Get the version of the detail of the horse with given ID, as returned by {@link #getById(long)}, without assembling it.
+   * The version changes whenever the detail does.
+   * It consists of the version of the horse itself, followed by those of its parents, separated by dots.
+   *
+   * @param id the ID of the horse
+   * @return the version of the horse's detail
+   * @throws NotFoundException if the horse with the given ID does not exist in the persistent data store
+   */
+  String getDetailVersion(long id) throws NotFoundException;
+
+  /**
+   * Get the version of the list returned by {@link #allHorses()}, without assembling it.
+   * The version changes whenever the list does.
+   *
+   * @return the version of the list of all horses
+   */
+  String allHorsesVersion();
+
+  /**
+   * Get the version of the page returned by {@link #horsePage(Long, int)}, without assembling it.
+   *
+   * @param after the ID of the last horse of the previous page, or {@code null} for the first page
+   * @param limit the maximum number of horses on the page
+   * @return the version of the page
+   * @throws ValidationException if {@code limit} is not positive
+   */
+  String horsePageVersion(Long after, int limit) throws ValidationException;
+
+  /**
+   * Get the version of the list returned by {@link #allHorses(HorseSearchDto)}, without assembling it.
+   *
+   * @param searchParameters the parameters of the horses to be listed
+   * @return the version of the list of matching horses
+   */
+  String allHorsesVersion(HorseSearchDto searchParameters);
+
+  /**
+   * Get the version of the list returned by {@link #horsesById(List)}, without assembling it.
+   *
+   * @param ids the IDs of the horses, at most 100
+   * @return the version of the list of found horses
+   * @throws ValidationException if no or too many IDs are given
+   */
+  String horsesByIdVersion(List<Long> ids) throws ValidationException;
+
+  /**
+   * Get the version of the family tree returned by {@link #getFamilyTree(HorseFamilyTreeDto)}, without assembling it.
+   *
+   * @param parameters the horse to get the family tree of, with the number of generations
+   * @return the version of the family tree
+   */
+  String getFamilyTreeVersion(HorseFamilyTreeDto parameters);
+
 
   /**
    * @param newHorse the horse to add
@@ -65,6 +164,27 @@ public interface HorseService {
    */
   HorseDetailDto create(HorseDetailDto newHorse) throws NotFoundException, ValidationException, ConflictException;
 
+  /**
+   * Create a batch of horses in the persistent data store, all or none.
+   * All horses are validated before any is created, parents may be other horses of the same batch.
+   *
+   * @param newHorses the horses to create
+   * @return the IDs of the created horses, in the order of {@code newHorses}
+   * @throws ValidationException if the data of any horse is in itself incorrect; the errors name the index of the horse
+   * @throws ConflictException   if the data of any horse is in conflict with the data in the system or the batch
+   */
+  List<Long> createAll(List<HorseBatchEntryDto> newHorses) throws ValidationException, ConflictException;
+
+  /**
+   * Create the valid horses of a batch in the persistent data store, and reject the others.
+   * Horses are validated the same way as by {@link #createAll(List)};
+   * a horse whose parent in the batch is rejected is rejected as well.
+   *
+   * @param newHorses the horses to create
+   * @return the outcome of every horse, in the order of {@code newHorses}
+   */
+  List<HorseBatchEntryResultDto> createAllValid(List<HorseBatchEntryDto> newHorses);
+
   /**
    * Deletes the Horse specified by an id.
    *
@@ -79,4 +199,48 @@ public interface HorseService {
    * @throws ValidationException if parameter generations is not a number
    */
   Stream<HorseFamilyTreeDto> getFamilyTree(HorseFamilyTreeDto parameters) throws NotFoundException, ValidationException;
+
+  /**
+   * Get a horse and its offspring, their offspring and so on.
+   *
+   * @param id          the ID of the horse to get the descendants of
+   * @param generations the number of generations, counting the horse itself
+   * @return the horse followed by its descendants, generation by generation
+   * @throws NotFoundException   if the horse with the given ID does not exist in the persistent data store
+   * @throws ValidationException if {@code generations} is not positive
+   */
+  Stream<HorseFamilyTreeDto> getDescendants(long id, long generations) throws NotFoundException, ValidationException;
+
+  /**
+   * Calculate Wright's coefficient of inbreeding of a horse.
+   *
+   * @param id          the ID of the horse
+   * @param generations the number of generations of its pedigree to consider, counting the horse itself
+   * @return the coefficient of inbreeding and the common ancestors of the horse's parents
+   * @throws NotFoundException   if the horse with the given ID does not exist in the persistent data store
+   * @throws ValidationException if {@code generations} is not positive or too large
+   */
+  HorseInbreedingDto getInbreeding(long id, long generations) throws NotFoundException, ValidationException;
+
+  /**
+   * Rank all stallions by the coefficient of inbreeding a foal of them and the given mare would have.
+   * If the ranking takes longer than the requested timeout, the best of the stallions evaluated so far are returned.
+   *
+   * @param mareId     the ID of the mare
+   * @param parameters the number of stallions to return, the generations to consider and the timeout
+   * @return the best stallions, lowest offspring inbreeding first
+   * @throws NotFoundException   if the mare does not exist in the persistent data store
+   * @throws ValidationException if the horse is not a mare, or the parameters are out of range
+   */
+  MatingCandidatesDto getMatingCandidates(long mareId, MatingCandidateSearchDto parameters) throws NotFoundException, ValidationException;
+
+  /**
+   * Find the closest common ancestors of two horses.
+   *
+   * @param id      the ID of the first horse
+   * @param otherId the ID of the second horse
+   * @return the closest common ancestors and their distances to both horses
+   * @throws NotFoundException if one of the horses does not exist in the persistent data store
+   */
+  HorseRelationshipDto getRelationship(long id, long otherId) throws NotFoundException;
 }
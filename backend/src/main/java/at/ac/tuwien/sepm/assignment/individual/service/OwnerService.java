@@ -32,6 +32,15 @@ public interface OwnerService {
    */
   Map<Long, OwnerDto> getAllById(Collection<Long> ids) throws NotFoundException;
 
+  /**
+   * Like {@link #getAllById(Collection)}, but best effort:
+   * owners that do not exist are simply not contained in the returned map.
+   *
+   * @param ids the IDs of the owners, that should be fetched
+   * @return a map that contains the found owners with their IDs as key
+   */
+  Map<Long, OwnerDto> findAllById(Collection<Long> ids);
+
   /**
    * Search for owners matching the criteria in {@code searchParameters}.
    * <p>
@@ -50,7 +59,7 @@ public interface OwnerService {
    *
    * @param newOwner the data for the new owner
    * @return the owner, that was just newly created in the persistent data store
-   * @throws ValidationException if the
+   * @throws ValidationException if the data of the owner is invalid, or its email address is already used
    */
   OwnerDto create(OwnerCreateDto newOwner) throws ValidationException;
 }
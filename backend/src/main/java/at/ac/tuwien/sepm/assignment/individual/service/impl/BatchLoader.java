@@ -0,0 +1,63 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Collects the keys one service call needs while it assembles its result, and loads them together.
+ * <p>
+ * Keys are announced with {@link #load(Object)}. The first {@link #get(Object)} after new keys were announced
+ * loads all pending keys with a single call of the batch function, i.e. a single {@code IN} query.
+ * Every key is only loaded once, however often it is announced,
+ * and keys without a value are remembered as such.
+ * The loaded values are kept as long as the loader, so a loader must not outlive the service call it was created for.
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+final class BatchLoader<K, V> {
+  private final Function<Collection<K>, Map<K, V>> batch;
+  private final Set<K> pending = new LinkedHashSet<>();
+  private final Map<K, V> loaded = new HashMap<>();
+
+  /**
+   * @param batch loads the values of the given keys; keys without a value are simply not contained in the returned map
+   */
+  BatchLoader(Function<Collection<K>, Map<K, V>> batch) {
+    this.batch = batch;
+  }
+
+  /**
+   * Announce that the value of {@code key} will be needed.
+   *
+   * @param key the key, ignored if {@code null}
+   */
+  void load(K key) {
+    if (key != null && !loaded.containsKey(key)) {
+      pending.add(key);
+    }
+  }
+
+  /**
+   * Get the value of {@code key}, loading it together with all pending keys if it is not loaded yet.
+   *
+   * @param key the key
+   * @return the value, or {@code null} if {@code key} is {@code null} or has no value
+   */
+  V get(K key) {
+    load(key);
+    if (!pending.isEmpty()) {
+      Map<K, V> values = batch.apply(Set.copyOf(pending));
+      for (K pendingKey : pending) {
+        loaded.put(pendingKey, values.get(pendingKey));
+      }
+      pending.clear();
+    }
+    return key == null ? null : loaded.get(key);
+  }
+}
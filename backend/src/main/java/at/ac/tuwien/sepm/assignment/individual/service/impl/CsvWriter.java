@@ -0,0 +1,60 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes comma separated values record by record, as described in RFC 4180.
+ * Fields are only quoted if they contain a comma, a quote or a line break.
+ */
+final class CsvWriter implements Closeable, Flushable {
+  private final Writer writer;
+
+  CsvWriter(Writer writer) {
+    this.writer = writer;
+  }
+
+  /**
+   * Write a record, terminated by CRLF.
+   *
+   * @param fields the fields of the record, {@code null} is written as an empty field
+   */
+  void writeRecord(Object... fields) throws IOException {
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      if (fields[i] != null) {
+        writeField(fields[i].toString());
+      }
+    }
+    writer.write("\r\n");
+  }
+
+  private void writeField(String field) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < field.length() && !quote; i++) {
+      char c = field.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      writer.write(field);
+      return;
+    }
+    writer.write('"');
+    writer.write(field.replace("\"", "\"\""));
+    writer.write('"');
+  }
+
+  @Override
+  public void flush() throws IOException {
+    writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+}
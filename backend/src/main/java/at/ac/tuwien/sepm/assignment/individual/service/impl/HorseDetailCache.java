@@ -0,0 +1,209 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of assembled horse details by the ID of the horse, evicting the least recently used one first.
+ * <p>
+ * A detail contains the horse, its parents and the owners of all three.
+ * The cache remembers which horses and owners every cached detail was assembled from,
+ * so changing one of them invalidates exactly the details that show it.
+ * A detail loaded concurrently with an invalidation is not cached, as it may have been read before the change.
+ * Hits, misses, evictions and invalidations are counted and exposed via JMX (if {@code spring.jmx.enabled} is set).
+ * </p>
+ */
+@Component
+@ManagedResource(objectName = "at.ac.tuwien.sepm.assignment.individual:type=Cache,name=horseDetails")
+public class HorseDetailCache {
+  private final boolean enabled;
+  private final int maxSize;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+  private final LinkedHashMap<Long, HorseDetailDto> entries = new LinkedHashMap<>(16, 0.75f, true);
+  // IDs of the cached details that show a horse as parent, or an owner
+  private final Map<Long, Set<Long>> childrenByParent = new HashMap<>();
+  private final Map<Long, Set<Long>> detailsByOwner = new HashMap<>();
+  private long stamp;
+
+  public HorseDetailCache(
+      @Value("${app.horse-detail-cache.enabled:true}") boolean enabled,
+      @Value("${app.horse-detail-cache.max-size:10000}") int maxSize) {
+    this.enabled = enabled && maxSize > 0;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Get a cached horse detail.
+   *
+   * @param id the ID of the horse
+   * @return the cached detail, or {@code null} if it is not cached, or the cache is disabled
+   */
+  public synchronized HorseDetailDto get(long id) {
+    if (!enabled) {
+      return null;
+    }
+    HorseDetailDto detail = entries.get(id);
+    if (detail == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return detail;
+  }
+
+  /**
+   * The current invalidation stamp, to be taken before loading a detail that is to be cached.
+   *
+   * @return the stamp to pass to {@link #put(HorseDetailDto, long)}
+   */
+  public synchronized long stamp() {
+    return stamp;
+  }
+
+  /**
+   * Cache a horse detail just loaded from the persistent data store,
+   * unless anything was invalidated since {@code loadStamp} was taken.
+   *
+   * @param detail    the detail
+   * @param loadStamp the {@link #stamp()} taken before the detail was loaded
+   */
+  public synchronized void put(HorseDetailDto detail, long loadStamp) {
+    if (!enabled || loadStamp != stamp) {
+      return;
+    }
+    remove(detail.id());
+    entries.put(detail.id(), detail);
+    for (HorseDetailDto parent : new HorseDetailDto[] {detail.mother(), detail.father()}) {
+      if (parent != null) {
+        childrenByParent.computeIfAbsent(parent.id(), k -> new HashSet<>()).add(detail.id());
+        addOwner(parent.ownerId(), detail.id());
+      }
+    }
+    addOwner(detail.ownerId(), detail.id());
+    while (entries.size() > maxSize) {
+      remove(entries.keySet().iterator().next());
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Drop the details showing a horse, because it was created, updated or deleted.
+   *
+   * @param id the ID of the horse
+   */
+  public synchronized void invalidateHorse(long id) {
+    stamp++;
+    if (remove(id) != null) {
+      invalidations.increment();
+    }
+    Set<Long> children = childrenByParent.get(id);
+    if (children != null) {
+      for (Long child : Set.copyOf(children)) {
+        remove(child);
+        invalidations.increment();
+      }
+    }
+  }
+
+  /**
+   * Drop the details showing an owner, because it was created, updated or deleted.
+   *
+   * @param id the ID of the owner
+   */
+  public synchronized void invalidateOwner(long id) {
+    stamp++;
+    Set<Long> details = detailsByOwner.get(id);
+    if (details != null) {
+      for (Long detail : Set.copyOf(details)) {
+        remove(detail);
+        invalidations.increment();
+      }
+    }
+  }
+
+  @ManagedOperation(description = "Drop all cached horse details")
+  public synchronized void invalidateAll() {
+    stamp++;
+    entries.clear();
+    childrenByParent.clear();
+    detailsByOwner.clear();
+  }
+
+  private void addOwner(Long ownerId, long detailId) {
+    if (ownerId != null) {
+      detailsByOwner.computeIfAbsent(ownerId, k -> new HashSet<>()).add(detailId);
+    }
+  }
+
+  private HorseDetailDto remove(long id) {
+    HorseDetailDto detail = entries.remove(id);
+    if (detail == null) {
+      return null;
+    }
+    for (HorseDetailDto parent : new HorseDetailDto[] {detail.mother(), detail.father()}) {
+      if (parent != null) {
+        removeReference(childrenByParent, parent.id(), id);
+        removeReference(detailsByOwner, parent.ownerId(), id);
+      }
+    }
+    removeReference(detailsByOwner, detail.ownerId(), id);
+    return detail;
+  }
+
+  private static void removeReference(Map<Long, Set<Long>> references, Long key, long id) {
+    if (key == null) {
+      return;
+    }
+    Set<Long> ids = references.get(key);
+    if (ids != null) {
+      ids.remove(id);
+      if (ids.isEmpty()) {
+        references.remove(key);
+      }
+    }
+  }
+
+  @ManagedAttribute
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @ManagedAttribute
+  public synchronized int getSize() {
+    return entries.size();
+  }
+
+  @ManagedAttribute
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @ManagedAttribute
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @ManagedAttribute
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  @ManagedAttribute
+  public long getInvalidations() {
+    return invalidations.sum();
+  }
+}
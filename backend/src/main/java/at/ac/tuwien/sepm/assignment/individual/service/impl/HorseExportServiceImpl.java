@@ -0,0 +1,83 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseExportDto;
+import at.ac.tuwien.sepm.assignment.individual.mapper.HorseMapper;
+import at.ac.tuwien.sepm.assignment.individual.persistence.HorseDao;
+import at.ac.tuwien.sepm.assignment.individual.service.HorseExportService;
+import at.ac.tuwien.sepm.assignment.individual.type.RecordFormat;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class HorseExportServiceImpl implements HorseExportService {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  // the rows are collected in a buffer of this size, which is written to the output whenever it is full
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final HorseDao dao;
+  private final HorseMapper mapper;
+  private final ObjectMapper objectMapper;
+
+  public HorseExportServiceImpl(HorseDao dao, HorseMapper mapper, ObjectMapper objectMapper) {
+    this.dao = dao;
+    this.mapper = mapper;
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  public void exportHorses(RecordFormat format, Long after, OutputStream output) throws IOException {
+    LOG.trace("exportHorses({}, {})", format, after);
+    var buffered = new BufferedOutputStream(output, BUFFER_SIZE);
+    AtomicLong count = new AtomicLong();
+    try {
+      if (format == RecordFormat.CSV) {
+        var writer = new CsvWriter(new OutputStreamWriter(buffered, StandardCharsets.UTF_8));
+        writer.writeRecord("id", "name", "description", "dateOfBirth", "sex", "ownerId", "motherId", "fatherId");
+        dao.streamAll(after, horse -> {
+          try {
+            writer.writeRecord(horse.getId(), horse.getName(), horse.getDescription(), horse.getDateOfBirth(), horse.getSex(),
+                horse.getOwnerId(), horse.getMotherId(), horse.getFatherId());
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          count.incrementAndGet();
+        });
+        writer.flush();
+      } else {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(buffered)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // records are separated by the newlines alone, not by the default space between root values
+        generator.setRootValueSeparator(null);
+        dao.streamAll(after, horse -> {
+          try {
+            HorseExportDto row = mapper.entityToExportDto(horse);
+            generator.writeObject(row);
+            generator.writeRaw('\n');
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          count.incrementAndGet();
+        });
+        generator.close();
+      }
+      buffered.flush();
+    } catch (UncheckedIOException e) {
+      // most likely the client went away; it can resume after the last horse it received
+      LOG.warn("Export after {} aborted after {} horses: {}", after, count.get(), e.getCause().getMessage());
+      throw e.getCause();
+    }
+    LOG.info("Exported {} horses after {} as {}", count.get(), after, format);
+  }
+}
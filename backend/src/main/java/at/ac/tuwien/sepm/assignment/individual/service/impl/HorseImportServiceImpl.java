@@ -0,0 +1,467 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryResultDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseImportRecordDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseImportStatusDto;
+import at.ac.tuwien.sepm.assignment.individual.entity.Horse;
+import at.ac.tuwien.sepm.assignment.individual.exception.FatalException;
+import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
+import at.ac.tuwien.sepm.assignment.individual.persistence.HorseDao;
+import at.ac.tuwien.sepm.assignment.individual.service.HorseImportService;
+import at.ac.tuwien.sepm.assignment.individual.service.HorseService;
+import at.ac.tuwien.sepm.assignment.individual.type.ImportState;
+import at.ac.tuwien.sepm.assignment.individual.type.RecordFormat;
+import at.ac.tuwien.sepm.assignment.individual.type.Sex;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Service
+public class HorseImportServiceImpl implements HorseImportService {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final int MAX_REPORTED_ERRORS = 100;
+  private static final int MAX_FINISHED_IMPORTS = 20;
+
+  private final HorseDao dao;
+  private final HorseService service;
+  private final ObjectMapper objectMapper;
+  private final int chunkSize;
+  private final AtomicLong nextId = new AtomicLong(1);
+  private final Map<Long, Progress> imports = new ConcurrentHashMap<>();
+  // imports started in the background run one after the other, as concurrent ones would compete for the same external IDs
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "horse-import");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public HorseImportServiceImpl(HorseDao dao, HorseService service, ObjectMapper objectMapper,
+                                @Value("${app.import.chunk-size:1000}") int chunkSize) {
+    this.dao = dao;
+    this.service = service;
+    this.objectMapper = objectMapper;
+    this.chunkSize = Math.max(1, chunkSize);
+  }
+
+  @Override
+  public HorseImportStatusDto importHorses(RecordFormat format, InputStream input) {
+    Progress progress = register(format);
+    LOG.trace("importHorses({}), import {}", format, progress.id);
+    run(progress, input);
+    return progress.toDto();
+  }
+
+  @Override
+  public HorseImportStatusDto startImport(RecordFormat format, InputStream input) throws IOException {
+    Path spool = Files.createTempFile("horse-import-", ".tmp");
+    try {
+      Files.copy(input, spool, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      Files.deleteIfExists(spool);
+      throw e;
+    }
+    Progress progress = register(format);
+    LOG.trace("startImport({}), import {}", format, progress.id);
+    executor.execute(() -> {
+      try (InputStream spooled = Files.newInputStream(spool)) {
+        run(progress, spooled);
+      } catch (IOException | RuntimeException e) {
+        LOG.error("Import {} failed", progress.id, e);
+        progress.finish(ImportState.FAILED, "Import failed after record %d: %s".formatted(progress.read.get(), e.getMessage()));
+      } finally {
+        try {
+          Files.deleteIfExists(spool);
+        } catch (IOException e) {
+          LOG.warn("Could not delete the input of import {}: {}", progress.id, e.getMessage());
+        }
+      }
+    });
+    return progress.toDto();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    // imports still queued are dropped, a running one is interrupted; the chunks committed so far are kept
+    executor.shutdownNow();
+  }
+
+  private Progress register(RecordFormat format) {
+    Progress progress = new Progress(nextId.getAndIncrement(), format);
+    imports.put(progress.id, progress);
+    forgetOldImports();
+    return progress;
+  }
+
+  /**
+   * Read the records of {@code input}, and import them chunk by chunk.
+   */
+  private void run(Progress progress, InputStream input) {
+    progress.state = ImportState.RUNNING;
+    var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    try (RecordSource source = progress.format == RecordFormat.CSV ? new CsvSource(new CsvReader(reader)) : new NdjsonSource(reader)) {
+      List<ImportLine> chunk = new ArrayList<>(chunkSize);
+      ImportLine line;
+      while ((line = source.next()) != null) {
+        progress.read.incrementAndGet();
+        chunk.add(line);
+        if (chunk.size() == chunkSize) {
+          importChunk(chunk, progress);
+          chunk.clear();
+        }
+      }
+      importChunk(chunk, progress);
+      progress.finish(ImportState.COMPLETED, null);
+    } catch (IOException | FatalException e) {
+      // the chunks committed so far are kept
+      LOG.warn("Import {} failed after {} records: {}", progress.id, progress.read.get(), e.getMessage());
+      progress.finish(ImportState.FAILED, "Import failed after record %d: %s".formatted(progress.read.get(), e.getMessage()));
+    }
+    LOG.info("Import {} {}: {} records read, {} horses created, {} records rejected",
+        progress.id, progress.state, progress.read.get(), progress.created.get(), progress.rejected.get());
+  }
+
+  @Override
+  public List<HorseImportStatusDto> getImports() {
+    LOG.trace("getImports()");
+    return imports.values().stream()
+        .sorted((a, b) -> Long.compare(b.id, a.id))
+        .map(Progress::toDto)
+        .toList();
+  }
+
+  @Override
+  public HorseImportStatusDto getImport(long id) throws NotFoundException {
+    LOG.trace("getImport({})", id);
+    Progress progress = imports.get(id);
+    if (progress == null) {
+      throw new NotFoundException("Import with ID %d not found".formatted(id));
+    }
+    return progress.toDto();
+  }
+
+  private void forgetOldImports() {
+    List<Long> finished = imports.values().stream()
+        .filter(progress -> progress.state == ImportState.COMPLETED || progress.state == ImportState.FAILED)
+        .map(progress -> progress.id)
+        .sorted(Collections.reverseOrder())
+        .toList();
+    finished.stream().skip(MAX_FINISHED_IMPORTS).forEach(imports::remove);
+  }
+
+  /**
+   * Resolve the references of the records of a chunk, and create the horses of the valid ones in a single transaction.
+   * The errors are reported in the order of the records.
+   */
+  private void importChunk(List<ImportLine> lines, Progress progress) {
+    if (lines.isEmpty()) {
+      return;
+    }
+    Chunk chunk = new Chunk(lines);
+    List<List<String>> errors = new ArrayList<>(lines.size());
+    List<Integer> lineOfEntry = new ArrayList<>(lines.size());
+    for (ImportLine line : lines) {
+      if (line.error() != null) {
+        errors.add(List.of(line.error()));
+        continue;
+      }
+      List<String> recordErrors = chunk.add(line.record());
+      if (recordErrors.isEmpty()) {
+        lineOfEntry.add(errors.size());
+      }
+      errors.add(recordErrors);
+    }
+    if (!chunk.entries.isEmpty()) {
+      List<HorseBatchEntryResultDto> results = service.createAllValid(chunk.entries);
+      for (int i = 0; i < results.size(); i++) {
+        HorseBatchEntryResultDto result = results.get(i);
+        if (result.id() == null) {
+          errors.set(lineOfEntry.get(i), result.errors());
+        } else {
+          progress.created.incrementAndGet();
+        }
+      }
+    }
+    for (int i = 0; i < lines.size(); i++) {
+      if (!errors.get(i).isEmpty()) {
+        progress.reject(lines.get(i).number(), errors.get(i));
+      }
+    }
+  }
+
+  /**
+   * The records of a chunk whose references could be resolved, as entries of a batch to create.
+   * All horses the chunk refers to are fetched up front, with one query per kind of reference.
+   */
+  private final class Chunk {
+    private final List<HorseBatchEntryDto> entries = new ArrayList<>();
+    private final Map<String, Horse> existingByExternalId;
+    private final Map<String, List<Horse>> existingByName;
+    private final Map<String, Integer> entryByExternalId = new HashMap<>();
+    private final Map<String, List<Integer>> entriesByName = new HashMap<>();
+
+    Chunk(List<ImportLine> lines) {
+      List<HorseImportRecordDto> records = lines.stream()
+          .map(ImportLine::record)
+          .filter(Objects::nonNull)
+          .toList();
+      existingByExternalId = dao.getAllByExternalId(records.stream()
+          .flatMap(r -> Stream.of(r.motherExternalId(), r.fatherExternalId()))
+          .filter(Objects::nonNull)
+          .collect(Collectors.toSet()));
+      existingByName = dao.getAllByName(records.stream()
+              .flatMap(r -> Stream.of(r.motherName(), r.fatherName()))
+              .filter(Objects::nonNull)
+              .collect(Collectors.toSet())).stream()
+          .collect(Collectors.groupingBy(Horse::getName));
+    }
+
+    /**
+     * Resolve the parents of a record, and add it to the entries if they could be resolved.
+     * The record itself is validated with the whole batch, by {@link HorseService#createAllValid(List)}.
+     *
+     * @return the errors of the record, empty if it was added
+     */
+    List<String> add(HorseImportRecordDto record) {
+      List<String> errors = new ArrayList<>();
+      Parent mother = resolve(record.motherExternalId(), record.motherName(), "Mother", errors);
+      Parent father = resolve(record.fatherExternalId(), record.fatherName(), "Father", errors);
+      if (!errors.isEmpty()) {
+        return errors;
+      }
+      int index = entries.size();
+      entries.add(new HorseBatchEntryDto(record.name(), record.description(), record.dateOfBirth(), record.sex(), record.ownerId(),
+          mother == null ? null : mother.id(), father == null ? null : father.id(),
+          mother == null ? null : mother.index(), father == null ? null : father.index(),
+          record.externalId()));
+      if (record.externalId() != null) {
+        // a second use of the external ID is rejected with the batch
+        entryByExternalId.putIfAbsent(record.externalId(), index);
+      }
+      entriesByName.computeIfAbsent(record.name(), k -> new ArrayList<>()).add(index);
+      return errors;
+    }
+
+    /**
+     * Find a parent among the existing horses and the records of the chunk before the current one.
+     * The external ID takes precedence over the name.
+     */
+    private Parent resolve(String externalId, String name, String role, List<String> errors) {
+      if (externalId != null) {
+        Horse existing = existingByExternalId.get(externalId);
+        if (existing != null) {
+          return new Parent(existing.getId(), null);
+        }
+        Integer index = entryByExternalId.get(externalId);
+        if (index != null) {
+          return new Parent(null, index);
+        }
+        errors.add("%s with external ID %s does not exist".formatted(role, externalId));
+        return null;
+      }
+      if (name != null) {
+        List<Horse> existing = existingByName.getOrDefault(name, List.of());
+        List<Integer> imported = entriesByName.getOrDefault(name, List.of());
+        if (existing.size() + imported.size() == 1) {
+          return existing.isEmpty() ? new Parent(null, imported.get(0)) : new Parent(existing.get(0).getId(), null);
+        }
+        errors.add(existing.isEmpty() && imported.isEmpty()
+            ? "%s with name %s does not exist".formatted(role, name)
+            : "%s name %s is ambiguous, refer to it by external ID".formatted(role, name));
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A parent, either an existing horse or an earlier entry of the chunk.
+   */
+  private record Parent(Long id, Integer index) {
+  }
+
+  /**
+   * A record of the input, or the reason it could not be read.
+   *
+   * @param number the number of the record in the input, starting at 1
+   */
+  private record ImportLine(long number, HorseImportRecordDto record, String error) {
+  }
+
+  private interface RecordSource extends Closeable {
+    /**
+     * @return the next record, or {@code null} at the end of the input
+     */
+    ImportLine next() throws IOException;
+  }
+
+  private final class NdjsonSource implements RecordSource {
+    private final BufferedReader reader;
+    private long number;
+
+    NdjsonSource(BufferedReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public ImportLine next() throws IOException {
+      String line;
+      do {
+        line = reader.readLine();
+        if (line == null) {
+          return null;
+        }
+      } while (line.isBlank());
+      number++;
+      try {
+        return new ImportLine(number, objectMapper.readValue(line, HorseImportRecordDto.class), null);
+      } catch (JsonProcessingException e) {
+        return new ImportLine(number, null, "Malformed record: " + e.getOriginalMessage());
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  private static final class CsvSource implements RecordSource {
+    private final CsvReader reader;
+    private Map<String, Integer> columns;
+    private long number;
+
+    CsvSource(CsvReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public ImportLine next() throws IOException {
+      if (columns == null) {
+        List<String> header = reader.readRecord();
+        if (header == null) {
+          return null;
+        }
+        columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+          columns.put(header.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+      }
+      List<String> fields;
+      do {
+        fields = reader.readRecord();
+        if (fields == null) {
+          return null;
+        }
+      } while (fields.size() == 1 && fields.get(0).isBlank());
+      number++;
+      try {
+        return new ImportLine(number, new HorseImportRecordDto(
+            field(fields, "externalId"),
+            field(fields, "name"),
+            field(fields, "description"),
+            field(fields, "dateOfBirth") == null ? null : LocalDate.parse(field(fields, "dateOfBirth")),
+            field(fields, "sex") == null ? null : Sex.valueOf(field(fields, "sex").toUpperCase(Locale.ROOT)),
+            field(fields, "ownerId") == null ? null : Long.valueOf(field(fields, "ownerId")),
+            field(fields, "motherExternalId"),
+            field(fields, "motherName"),
+            field(fields, "fatherExternalId"),
+            field(fields, "fatherName")), null);
+      } catch (RuntimeException e) {
+        return new ImportLine(number, null, "Malformed record: " + e.getMessage());
+      }
+    }
+
+    /**
+     * @return the value of the column, or {@code null} if it is empty or missing
+     */
+    private String field(List<String> fields, String column) {
+      Integer index = columns.get(column.toLowerCase(Locale.ROOT));
+      if (index == null || index >= fields.size() || fields.get(index).isEmpty()) {
+        return null;
+      }
+      return fields.get(index);
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  /**
+   * The progress of an import, updated while it runs and read concurrently.
+   */
+  private static final class Progress {
+    private final long id;
+    private final RecordFormat format;
+    private final LocalDateTime started = LocalDateTime.now();
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final List<String> errors = new ArrayList<>();
+    private volatile ImportState state = ImportState.QUEUED;
+    private volatile LocalDateTime finished;
+
+    Progress(long id, RecordFormat format) {
+      this.id = id;
+      this.format = format;
+    }
+
+    void reject(long number, List<String> recordErrors) {
+      rejected.incrementAndGet();
+      synchronized (errors) {
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+          errors.add("Record %d: %s".formatted(number, String.join(", ", recordErrors)));
+        }
+      }
+    }
+
+    void finish(ImportState finalState, String error) {
+      if (error != null) {
+        synchronized (errors) {
+          errors.add(error);
+        }
+      }
+      finished = LocalDateTime.now();
+      state = finalState;
+    }
+
+    HorseImportStatusDto toDto() {
+      List<String> reported;
+      synchronized (errors) {
+        reported = List.copyOf(errors);
+      }
+      return new HorseImportStatusDto(id, format.name(), state, read.get(), created.get(), rejected.get(), reported, started, finished);
+    }
+  }
+}
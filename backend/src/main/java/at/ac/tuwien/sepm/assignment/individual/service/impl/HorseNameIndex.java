@@ -0,0 +1,262 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import at.ac.tuwien.sepm.assignment.individual.persistence.HorseDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory trigram index over horse names, used to answer substring name searches
+ * without scanning the whole horse table.
+ * <p>
+ * Every name is split into its overlapping three character sequences (trigrams).
+ * For each trigram the index keeps a sorted list of the IDs of the horses whose name contains it.
+ * A query is resolved by intersecting the lists of all trigrams of the search string,
+ * and then checking the remaining candidates against the stored names.
+ * Search strings shorter than three characters cannot be answered by the index,
+ * nor can those containing the wildcards of the LIKE condition the persistent data store searches with.
+ * </p>
+ * <p>
+ * The index is built lazily from the persistent data store on first use,
+ * and kept up to date by the horse service on create, update and delete.
+ * </p>
+ */
+@Component
+public class HorseNameIndex {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final int GRAM = 3;
+  // the search in the persistent data store treats these as patterns, which a literal substring check can not follow
+  private static final Pattern LIKE_SPECIAL_CHARACTERS = Pattern.compile("[%_\\\\]");
+
+  private final HorseDao dao;
+  private final boolean enabled;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<Long, PostingList> postings = new HashMap<>();
+  private final Map<Long, String> names = new HashMap<>();
+  private boolean built;
+
+  public HorseNameIndex(HorseDao dao, @Value("${app.horse-name-index.enabled:false}") boolean enabled) {
+    this.dao = dao;
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Find the IDs of all horses whose name contains {@code query}, ignoring case.
+   *
+   * @param query the substring to search for
+   * @return the matching IDs in ascending order, or {@code null} if the query is too short to be answered by the index,
+   *     or contains a LIKE wildcard ({@code %}, {@code _}) or the escape character ({@code \})
+   */
+  public long[] search(String query) {
+    LOG.trace("search({})", query);
+    String normalized = normalize(query);
+    if (normalized.length() < GRAM || LIKE_SPECIAL_CHARACTERS.matcher(normalized).find()) {
+      return null;
+    }
+    ensureBuilt();
+    lock.readLock().lock();
+    try {
+      List<PostingList> lists = new ArrayList<>();
+      for (long gram : trigrams(normalized)) {
+        PostingList list = postings.get(gram);
+        if (list == null) {
+          return new long[0];
+        }
+        lists.add(list);
+      }
+      lists.sort(Comparator.comparingInt(list -> list.size));
+
+      // walk the shortest list, probing the others; then drop candidates whose trigrams are not adjacent
+      PostingList shortest = lists.get(0);
+      long[] result = new long[shortest.size];
+      int count = 0;
+      for (int i = 0; i < shortest.size; i++) {
+        long id = shortest.ids[i];
+        boolean inAll = true;
+        for (int j = 1; j < lists.size() && inAll; j++) {
+          inAll = lists.get(j).contains(id);
+        }
+        if (inAll && names.get(id).contains(normalized)) {
+          result[count++] = id;
+        }
+      }
+      return Arrays.copyOf(result, count);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Add a horse to the index, or replace the name it is indexed with.
+   *
+   * @param id   the ID of the horse
+   * @param name the (new) name of the horse
+   */
+  public void put(long id, String name) {
+    LOG.trace("put({}, {})", id, name);
+    lock.writeLock().lock();
+    try {
+      if (!built) {
+        return;
+      }
+      removeUnlocked(id);
+      addUnlocked(id, name);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove a horse from the index.
+   *
+   * @param id the ID of the horse to remove
+   */
+  public void remove(long id) {
+    LOG.trace("remove({})", id);
+    lock.writeLock().lock();
+    try {
+      if (!built) {
+        return;
+      }
+      removeUnlocked(id);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Discard the index and build it anew from all horses in the persistent data store.
+   */
+  public void rebuild() {
+    LOG.debug("Building horse name index");
+    lock.writeLock().lock();
+    try {
+      postings.clear();
+      names.clear();
+      dao.forEachName(this::addUnlocked);
+      built = true;
+      LOG.debug("Indexed names of {} horses in {} trigram lists", names.size(), postings.size());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void ensureBuilt() {
+    lock.readLock().lock();
+    try {
+      if (built) {
+        return;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    lock.writeLock().lock();
+    try {
+      if (!built) {
+        rebuild();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void addUnlocked(long id, String name) {
+    String normalized = normalize(name);
+    names.put(id, normalized);
+    for (long gram : trigrams(normalized)) {
+      postings.computeIfAbsent(gram, g -> new PostingList()).add(id);
+    }
+  }
+
+  private void removeUnlocked(long id) {
+    String old = names.remove(id);
+    if (old == null) {
+      return;
+    }
+    for (long gram : trigrams(old)) {
+      PostingList list = postings.get(gram);
+      if (list != null && list.remove(id) && list.size == 0) {
+        postings.remove(gram);
+      }
+    }
+  }
+
+  private static String normalize(String name) {
+    return name == null ? "" : name.toUpperCase(Locale.ROOT);
+  }
+
+  /**
+   * The distinct trigrams of {@code normalized}, each packed into a long (16 bits per character).
+   */
+  private static long[] trigrams(String normalized) {
+    if (normalized.length() < GRAM) {
+      return new long[0];
+    }
+    long[] grams = new long[normalized.length() - GRAM + 1];
+    for (int i = 0; i < grams.length; i++) {
+      grams[i] = ((long) normalized.charAt(i) << 32) | ((long) normalized.charAt(i + 1) << 16) | normalized.charAt(i + 2);
+    }
+    return Arrays.stream(grams).distinct().toArray();
+  }
+
+  /**
+   * Sorted, growable list of horse IDs.
+   * New horses get increasing IDs, so adding is almost always an append.
+   */
+  private static final class PostingList {
+    private long[] ids = new long[4];
+    private int size;
+
+    void add(long id) {
+      if (size > 0 && ids[size - 1] >= id) {
+        int pos = Arrays.binarySearch(ids, 0, size, id);
+        if (pos >= 0) {
+          return;
+        }
+        insertAt(-pos - 1, id);
+        return;
+      }
+      insertAt(size, id);
+    }
+
+    boolean remove(long id) {
+      int pos = Arrays.binarySearch(ids, 0, size, id);
+      if (pos < 0) {
+        return false;
+      }
+      System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+      size--;
+      return true;
+    }
+
+    boolean contains(long id) {
+      return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    private void insertAt(int pos, long id) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+      ids[pos] = id;
+      size++;
+    }
+  }
+}
@@ -1,155 +1,525 @@
 package at.ac.tuwien.sepm.assignment.individual.service.impl;
 
+import at.ac.tuwien.sepm.assignment.individual.dto.CommonAncestorDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryResultDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseFamilyTreeDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseInbreedingDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseListDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseRelationshipDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseSearchDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidateDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidateSearchDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidatesDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.OwnerDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.RelationshipAncestorDto;
 import at.ac.tuwien.sepm.assignment.individual.entity.Horse;
 import at.ac.tuwien.sepm.assignment.individual.exception.ConflictException;
 import at.ac.tuwien.sepm.assignment.individual.exception.FatalException;
 import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
 import at.ac.tuwien.sepm.assignment.individual.exception.ValidationException;
 import at.ac.tuwien.sepm.assignment.individual.mapper.HorseMapper;
+import at.ac.tuwien.sepm.assignment.individual.mapper.OwnerMapper;
 import at.ac.tuwien.sepm.assignment.individual.persistence.HorseDao;
 import at.ac.tuwien.sepm.assignment.individual.service.HorseService;
 import at.ac.tuwien.sepm.assignment.individual.service.OwnerService;
+import at.ac.tuwien.sepm.assignment.individual.type.Sex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Service
 public class HorseServiceImpl implements HorseService {
   private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  // above this many name matches, the plain LIKE scan finds enough horses for the limit early on and is cheaper
+  private static final int MAX_INDEX_CANDIDATES = 1000;
+  private static final int DEFAULT_MATING_CANDIDATES = 10;
+  private static final int MAX_MATING_CANDIDATES = 100;
+  private static final int DEFAULT_MATING_GENERATIONS = 10;
+  private static final long DEFAULT_MATING_TIMEOUT_MILLIS = 2000;
+  private static final long MAX_MATING_TIMEOUT_MILLIS = 10000;
+  private static final int MAX_BATCH_SIZE = 10000;
+  private static final int MAX_LOOKUP_SIZE = 100;
   private final HorseDao dao;
   private final HorseMapper mapper;
   private final HorseValidator validator;
   private final OwnerService ownerService;
+  private final OwnerMapper ownerMapper;
+  private final HorseNameIndex nameIndex;
+  private final PedigreeEngine pedigree;
+  private final MatingPlanner matingPlanner;
+  private final HorseDetailCache detailCache;
+  private final int ownerJoinThreshold;
 
-  public HorseServiceImpl(HorseDao dao, HorseMapper mapper, HorseValidator validator, OwnerService ownerService) {
+  public HorseServiceImpl(HorseDao dao, HorseMapper mapper, HorseValidator validator, OwnerService ownerService, OwnerMapper ownerMapper,
+                          HorseNameIndex nameIndex, PedigreeEngine pedigree, MatingPlanner matingPlanner, HorseDetailCache detailCache,
+                          @Value("${app.owner-join.threshold:500}") int ownerJoinThreshold) {
     this.dao = dao;
     this.mapper = mapper;
     this.validator = validator;
     this.ownerService = ownerService;
+    this.ownerMapper = ownerMapper;
+    this.nameIndex = nameIndex;
+    this.pedigree = pedigree;
+    this.matingPlanner = matingPlanner;
+    this.detailCache = detailCache;
+    this.ownerJoinThreshold = ownerJoinThreshold;
   }
 
   @Override
   public Stream<HorseListDto> allHorses() {
     LOG.trace("allHorses(), service");
+    // the size of the result is not bounded, so the owners are joined in the database
+    return dao.getAllWithOwners().stream();
+  }
 
-    var horses = dao.getAll();
-    var ownerIds = horses.stream()
-        .map(Horse::getOwnerId)
-        .filter(Objects::nonNull)
-        .collect(Collectors.toUnmodifiableSet());
-    Map<Long, OwnerDto> ownerMap;
-    try {
-      ownerMap = ownerService.getAllById(ownerIds);
-    } catch (NotFoundException e) {
-      throw new FatalException("Horse, that is already persisted, refers to non-existing owner", e);
+  @Override
+  public Stream<HorseListDto> horsePage(Long after, int limit) throws ValidationException {
+    LOG.trace("horsePage({}, {}), service", after, limit);
+    validatePageLimit(limit);
+    if (limit > ownerJoinThreshold) {
+      return dao.getPageWithOwners(after, limit).stream();
     }
-    return horses.stream()
-        .map(horse -> mapper.entityToListDto(horse, ownerMap));
+    return toListDtos(dao.getPage(after, limit));
+  }
+
+  @Override
+  public void streamAllHorses(Consumer<HorseListDto> action) {
+    LOG.trace("streamAllHorses(), service");
+    dao.streamAllWithOwners((horse, owner) -> action.accept(mapper.entityToListDto(horse, ownerMapper.entityToDto(owner))));
   }
 
   public Stream<HorseListDto> allHorses(HorseSearchDto requestParameters) {
     LOG.trace("allHorses({}}), service", requestParameters);
-    Collection<Horse> horses;
-    if (requestParameters.ownerName() == null) {
-      horses = dao.search(requestParameters);
-    } else {
-      horses = dao.getAll(requestParameters);
-    }
-    var ownerIds = horses.stream()
-        .map(Horse::getOwnerId)
-        .filter(Objects::nonNull)
-        .collect(Collectors.toUnmodifiableSet());
-    Map<Long, OwnerDto> ownerMap;
-    try {
-      ownerMap = ownerService.getAllById(ownerIds);
-    } catch (NotFoundException e) {
-      throw new FatalException("Horse, that is already persisted, refers to non-existing owner", e);
+    if (requestParameters.ownerName() != null) {
+      return dao.getAllWithOwners(requestParameters).stream();
     }
-    return horses.stream()
-        .map(horse -> mapper.entityToListDto(horse, ownerMap));
+    if (requestParameters.limit() == null || requestParameters.limit() > ownerJoinThreshold) {
+      return dao.searchWithOwners(requestParameters).stream();
+    }
+    return toListDtos(searchParents(requestParameters));
+  }
+
+  @Override
+  public Stream<HorseListDto> horsesById(List<Long> ids) throws ValidationException {
+    LOG.trace("horsesById({}), service", ids);
+    validateLookup(ids);
+    // one query for the horses and at most one for their owners, however many IDs are given
+    Map<Long, Horse> horses = dao.getAllById(new HashSet<>(ids)).stream()
+        .collect(Collectors.toMap(Horse::getId, Function.identity()));
+    return toListDtos(ids.stream()
+        .distinct()
+        .map(horses::get)
+        .filter(Objects::nonNull)
+        .toList());
   }
 
-  private HorseDetailDto[] getParents(Horse child) throws NotFoundException {
-    LOG.trace("getParents({}), service", child);
-    HorseDetailDto[] parents = new HorseDetailDto[2];
-    Horse mother;
-    Horse father;
-    HorseDetailDto motherDTO;
-    HorseDetailDto fatherDTO;
+  private static void validatePageLimit(int limit) throws ValidationException {
+    if (limit < 1) {
+      throw new ValidationException("Validation of page request failed", Collections.singletonList("The page limit must be a positive number"));
+    }
+  }
 
-    if (child.getMotherId() != null) {
-      mother = dao.getById(child.getMotherId());
-      motherDTO = mapper.entityToDetailDto(mother, ownerMapForSingleId(mother.getOwnerId()), null, null);
-    } else {
-      motherDTO = null;
+  private static void validateLookup(List<Long> ids) throws ValidationException {
+    if (ids.isEmpty() || ids.size() > MAX_LOOKUP_SIZE) {
+      throw new ValidationException("Validation of horse lookup failed",
+          Collections.singletonList("Between 1 and " + MAX_LOOKUP_SIZE + " IDs must be given"));
     }
-    if (child.getFatherId() != null) {
-      father = dao.getById(child.getFatherId());
-      fatherDTO = mapper.entityToDetailDto(father, ownerMapForSingleId(father.getOwnerId()), null, null);
-    } else {
-      fatherDTO = null;
+  }
+
+  private List<Horse> searchParents(HorseSearchDto requestParameters) {
+    if (nameIndex.isEnabled()) {
+      long[] candidates = nameIndex.search(requestParameters.name());
+      if (candidates != null && candidates.length <= MAX_INDEX_CANDIDATES) {
+        return dao.searchAmong(Arrays.stream(candidates).boxed().toList(), requestParameters);
+      }
     }
+    return dao.search(requestParameters);
+  }
 
-    parents[0] = motherDTO;
-    parents[1] = fatherDTO;
-    return parents;
+  /**
+   * Add the owners to {@code horses}, from the owner cache or with a single query for all missing ones.
+   * For small results this is cheaper than joining the owner of every horse in the database,
+   * for large results the list of owner IDs to query gets too long.
+   */
+  private Stream<HorseListDto> toListDtos(Collection<Horse> horses) {
+    var owners = ownerLoader();
+    horses.forEach(horse -> owners.load(horse.getOwnerId()));
+    return horses.stream()
+        .map(horse -> {
+          OwnerDto owner = owners.get(horse.getOwnerId());
+          if (owner == null && horse.getOwnerId() != null) {
+            throw new FatalException("Horse, that is already persisted, refers to non-existing owner %d".formatted(horse.getOwnerId()));
+          }
+          return mapper.entityToListDto(horse, owner);
+        })
+        .toList()
+        .stream();
+  }
 
+  private BatchLoader<Long, OwnerDto> ownerLoader() {
+    return new BatchLoader<>(ownerService::findAllById);
   }
 
+  private BatchLoader<Long, Horse> horseLoader() {
+    return new BatchLoader<>(ids -> dao.getAllById(ids).stream()
+        .collect(Collectors.toMap(Horse::getId, Function.identity())));
+  }
 
   @Override
-  public HorseDetailDto update(HorseDetailDto horse) throws NotFoundException, ValidationException, ConflictException {
-    LOG.trace("update({}), service", horse);
-    List<Horse> allHorses = dao.getAll();
-    validator.validateForUpdate(horse, allHorses);
-    var updatedHorse = dao.update(horse);
-    var parents = getParents(updatedHorse);
-    return mapper.entityToDetailDto(
-        updatedHorse,
-        ownerMapForSingleId(updatedHorse.getOwnerId()),
-        parents[0],
-        parents[1]);
+  public HorseDetailDto update(HorseDetailDto horse, Long expectedVersion) throws NotFoundException, ValidationException, ConflictException {
+    LOG.trace("update({}, {}), service", horse, expectedVersion);
+    boolean parentOfOppositeSex = false;
+    boolean becomesOwnAncestor = false;
+    if (horse.id() != null) {
+      if (horse.sex() == Sex.MALE) {
+        parentOfOppositeSex = dao.hasChildrenAsMother(horse.id());
+      } else if (horse.sex() == Sex.FEMALE) {
+        parentOfOppositeSex = dao.hasChildrenAsFather(horse.id());
+      }
+      becomesOwnAncestor = isAncestorOrSelf(horse.id(), horse.motherId()) || isAncestorOrSelf(horse.id(), horse.fatherId());
+    }
+    validator.validateForUpdate(horse, parentOfOppositeSex, becomesOwnAncestor);
+    var updatedHorse = dao.update(horse, expectedVersion);
+    detailCache.invalidateHorse(updatedHorse.getId());
+    nameIndex.put(updatedHorse.getId(), updatedHorse.getName());
+    pedigree.put(updatedHorse);
+    return dao.getDetailById(updatedHorse.getId());
   }
 
 
+  private boolean isAncestorOrSelf(long id, Long parentId) {
+    return parentId != null && (parentId == id || dao.isAncestor(id, parentId));
+  }
+
   @Override
   public HorseDetailDto create(HorseDetailDto newHorse) throws NotFoundException, ValidationException, ConflictException {
     LOG.trace("create({}), service", newHorse);
     validator.validateForCreate(newHorse);
     var createdHorse = dao.create(newHorse);
-    var parents = getParents(createdHorse);
-    return mapper.entityToDetailDto(
-        createdHorse,
-        ownerMapForSingleId(createdHorse.getOwnerId()),
-        parents[0],
-        parents[1]);
+    detailCache.invalidateHorse(createdHorse.getId());
+    nameIndex.put(createdHorse.getId(), createdHorse.getName());
+    pedigree.put(createdHorse);
+    return dao.getDetailById(createdHorse.getId());
   }
 
 
+  @Override
+  public List<Long> createAll(List<HorseBatchEntryDto> newHorses) throws ValidationException, ConflictException {
+    LOG.trace("createAll({} horses), service", newHorses.size());
+    if (newHorses.isEmpty() || newHorses.size() > MAX_BATCH_SIZE) {
+      throw new ValidationException("Validation of horses to create failed",
+          Collections.singletonList("A batch must contain between 1 and " + MAX_BATCH_SIZE + " horses"));
+    }
+    BatchValidation batch = validateBatch(newHorses);
+    List<String> validationErrors = new ArrayList<>();
+    List<String> conflictErrors = new ArrayList<>();
+    for (int i = 0; i < newHorses.size(); i++) {
+      String prefix = "Horse %d: ".formatted(i);
+      batch.validationErrors().get(i).forEach(error -> validationErrors.add(prefix + error));
+      batch.conflictErrors().get(i).forEach(error -> conflictErrors.add(prefix + error));
+    }
+    if (!validationErrors.isEmpty()) {
+      validationErrors.addAll(conflictErrors);
+      throw new ValidationException("Validation of horses to create failed", validationErrors);
+    }
+    if (!conflictErrors.isEmpty()) {
+      throw new ConflictException("Validation of horses to create failed", conflictErrors);
+    }
+    return Arrays.asList(persistBatch(newHorses, batch.order()));
+  }
+
+  @Override
+  public List<HorseBatchEntryResultDto> createAllValid(List<HorseBatchEntryDto> newHorses) {
+    LOG.trace("createAllValid({} horses), service", newHorses.size());
+    if (newHorses.isEmpty()) {
+      return List.of();
+    }
+    BatchValidation batch = validateBatch(newHorses);
+    List<List<String>> errors = new ArrayList<>(newHorses.size());
+    for (int i = 0; i < newHorses.size(); i++) {
+      List<String> horseErrors = new ArrayList<>(batch.validationErrors().get(i));
+      horseErrors.addAll(batch.conflictErrors().get(i));
+      errors.add(horseErrors);
+    }
+    // parents come first in the order, so a rejection reaches all descendants in the batch
+    int[] accepted = new int[batch.order().length];
+    int count = 0;
+    for (int index : batch.order()) {
+      HorseBatchEntryDto horse = newHorses.get(index);
+      List<String> horseErrors = errors.get(index);
+      if (horseErrors.isEmpty() && horse.motherIndex() != null && !errors.get(horse.motherIndex()).isEmpty()) {
+        horseErrors.add("Mother is rejected");
+      }
+      if (horseErrors.isEmpty() && horse.fatherIndex() != null && !errors.get(horse.fatherIndex()).isEmpty()) {
+        horseErrors.add("Father is rejected");
+      }
+      if (horseErrors.isEmpty()) {
+        accepted[count++] = index;
+      }
+    }
+    Long[] ids = count == 0 ? new Long[newHorses.size()] : persistBatch(newHorses, Arrays.copyOf(accepted, count));
+    List<HorseBatchEntryResultDto> results = new ArrayList<>(newHorses.size());
+    for (int i = 0; i < newHorses.size(); i++) {
+      results.add(new HorseBatchEntryResultDto(ids[i], errors.get(i)));
+    }
+    return results;
+  }
+
+  /**
+   * The errors of every horse of a batch, and the order to create the horses in.
+   *
+   * @param order the indexes of the horses, parents first; horses whose batch parents form a cycle are missing
+   */
+  private record BatchValidation(List<List<String>> validationErrors, List<List<String>> conflictErrors, int[] order) {
+  }
+
+  /**
+   * Validate every horse of a batch against the data in the system and the other horses of the batch.
+   * All referenced horses and owners are fetched up front, with a single query for each kind.
+   */
+  private BatchValidation validateBatch(List<HorseBatchEntryDto> newHorses) {
+    var existingParents = horseLoader();
+    var owners = ownerLoader();
+    for (HorseBatchEntryDto horse : newHorses) {
+      existingParents.load(horse.motherId());
+      existingParents.load(horse.fatherId());
+      owners.load(horse.ownerId());
+    }
+
+    Set<String> usedExternalIds = new HashSet<>(dao.getAllByExternalId(newHorses.stream()
+        .map(HorseBatchEntryDto::externalId)
+        .filter(Objects::nonNull)
+        .toList()).keySet());
+
+    List<List<String>> validationErrors = new ArrayList<>(newHorses.size());
+    List<List<String>> conflictErrors = new ArrayList<>(newHorses.size());
+    for (int i = 0; i < newHorses.size(); i++) {
+      HorseBatchEntryDto horse = newHorses.get(i);
+      List<String> horseValidationErrors = new ArrayList<>();
+      List<String> horseConflictErrors = new ArrayList<>();
+      if (horse.externalId() != null && !usedExternalIds.add(horse.externalId())) {
+        horseConflictErrors.add("External ID %s is already used".formatted(horse.externalId()));
+      }
+      HorseDetailDto mother = batchParent(newHorses, existingParents, i, horse.motherId(), horse.motherIndex(), "Mother", horseConflictErrors);
+      HorseDetailDto father = batchParent(newHorses, existingParents, i, horse.fatherId(), horse.fatherIndex(), "Father", horseConflictErrors);
+      if (horse.ownerId() != null && owners.get(horse.ownerId()) == null) {
+        horseConflictErrors.add("Owner with ID %d does not exist".formatted(horse.ownerId()));
+      }
+      try {
+        validator.validateForCreate(new HorseDetailDto(null, horse.name(), horse.description(), horse.dateOfBirth(), horse.sex(),
+            null, mother, father));
+      } catch (ValidationException e) {
+        horseValidationErrors.addAll(e.errors());
+      } catch (ConflictException e) {
+        horseConflictErrors.addAll(e.errors());
+      }
+      validationErrors.add(horseValidationErrors);
+      conflictErrors.add(horseConflictErrors);
+    }
+    int[] order = parentsFirst(newHorses);
+    if (order.length < newHorses.size()) {
+      BitSet ordered = new BitSet(newHorses.size());
+      Arrays.stream(order).forEach(ordered::set);
+      for (int i = ordered.nextClearBit(0); i < newHorses.size(); i = ordered.nextClearBit(i + 1)) {
+        conflictErrors.get(i).add("Horse cannot be an ancestor of itself");
+      }
+    }
+    return new BatchValidation(validationErrors, conflictErrors, order);
+  }
+
+  /**
+   * Create the horses of a batch at the given indexes in a single transaction,
+   * and make them known to the caches and the in-memory pedigree.
+   *
+   * @param order the indexes of the horses to create, parents first; every parent given by index must be contained
+   * @return the IDs of the created horses, by their index in the batch; {@code null} for the horses not created
+   */
+  private Long[] persistBatch(List<HorseBatchEntryDto> newHorses, int[] order) {
+    // the parents given by index must be inserted first, so they get their IDs first
+    int[] position = new int[newHorses.size()];
+    for (int i = 0; i < order.length; i++) {
+      position[order[i]] = i;
+    }
+    List<HorseBatchEntryDto> sorted = new ArrayList<>(order.length);
+    for (int index : order) {
+      HorseBatchEntryDto horse = newHorses.get(index);
+      sorted.add(new HorseBatchEntryDto(horse.name(), horse.description(), horse.dateOfBirth(), horse.sex(), horse.ownerId(),
+          horse.motherId(), horse.fatherId(),
+          horse.motherIndex() == null ? null : position[horse.motherIndex()],
+          horse.fatherIndex() == null ? null : position[horse.fatherIndex()],
+          horse.externalId()));
+    }
+    List<Long> sortedIds = dao.createAll(sorted);
+
+    Long[] ids = new Long[newHorses.size()];
+    for (int i = 0; i < order.length; i++) {
+      ids[order[i]] = sortedIds.get(i);
+    }
+    for (int index : order) {
+      HorseBatchEntryDto horse = newHorses.get(index);
+      Horse created = new Horse()
+          .setId(ids[index])
+          .setName(horse.name())
+          .setDescription(horse.description())
+          .setDateOfBirth(horse.dateOfBirth())
+          .setSex(horse.sex())
+          .setOwnerId(horse.ownerId())
+          .setMotherId(horse.motherIndex() == null ? horse.motherId() : ids[horse.motherIndex()])
+          .setFatherId(horse.fatherIndex() == null ? horse.fatherId() : ids[horse.fatherIndex()]);
+      detailCache.invalidateHorse(created.getId());
+      nameIndex.put(created.getId(), created.getName());
+      pedigree.put(created);
+    }
+    return ids;
+  }
+
+  /**
+   * The parent of a horse in a batch to create, with the data needed for its validation.
+   * Errors in the reference to the parent are added to {@code errors}.
+   */
+  private static HorseDetailDto batchParent(List<HorseBatchEntryDto> batch, BatchLoader<Long, Horse> existing, int index,
+                                            Long id, Integer parentIndex, String role, List<String> errors) {
+    if (id != null && parentIndex != null) {
+      errors.add(role + " must be given either by ID or by index, not both");
+      return null;
+    }
+    if (id != null) {
+      Horse parent = existing.get(id);
+      if (parent == null) {
+        errors.add("%s with ID %d does not exist".formatted(role, id));
+        return null;
+      }
+      return new HorseDetailDto(parent.getId(), parent.getName(), null, parent.getDateOfBirth(), parent.getSex(), null, null, null);
+    }
+    if (parentIndex != null) {
+      if (parentIndex < 0 || parentIndex >= batch.size() || parentIndex == index) {
+        errors.add("%s index %d does not refer to another horse of the batch".formatted(role, parentIndex));
+        return null;
+      }
+      HorseBatchEntryDto parent = batch.get(parentIndex);
+      if (parent.dateOfBirth() == null || parent.sex() == null) {
+        // reported for the parent itself
+        return null;
+      }
+      return new HorseDetailDto(null, parent.name(), null, parent.dateOfBirth(), parent.sex(), null, null, null);
+    }
+    return null;
+  }
+
+  /**
+   * Order the indexes of a batch, so that every horse comes after its parents in the batch.
+   * Horses whose batch parents form a cycle are missing from the order,
+   * invalid parent indexes are ignored.
+   *
+   * @return the indexes in the batch, parents first, generation by generation
+   */
+  private static int[] parentsFirst(List<HorseBatchEntryDto> batch) {
+    int size = batch.size();
+    int[] pendingParents = new int[size];
+    List<List<Integer>> children = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      children.add(new ArrayList<>(0));
+    }
+    for (int i = 0; i < size; i++) {
+      HorseBatchEntryDto horse = batch.get(i);
+      for (Integer parent : new Integer[] {horse.motherIndex(), horse.fatherIndex()}) {
+        if (parent != null && parent >= 0 && parent < size && parent != i) {
+          pendingParents[i]++;
+          children.get(parent).add(i);
+        }
+      }
+    }
+    int[] order = new int[size];
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (pendingParents[i] == 0) {
+        order[count++] = i;
+      }
+    }
+    for (int next = 0; next < count; next++) {
+      for (int child : children.get(order[next])) {
+        if (--pendingParents[child] == 0) {
+          order[count++] = child;
+        }
+      }
+    }
+    return Arrays.copyOf(order, count);
+  }
+
   @Override
   public HorseDetailDto getById(long id) throws NotFoundException {
     LOG.trace("getById({}), service", id);
-    Horse horse = dao.getById(id);
-    var parents = getParents(horse);
-    return mapper.entityToDetailDto(
-        horse,
-        ownerMapForSingleId(horse.getOwnerId()),
-        parents[0],
-        parents[1]);
+    HorseDetailDto detail = detailCache.get(id);
+    if (detail == null) {
+      long stamp = detailCache.stamp();
+      detail = dao.getDetailById(id);
+      detailCache.put(detail, stamp);
+    }
+    return detail;
+  }
+
+  @Override
+  public String getDetailVersion(long id) throws NotFoundException {
+    LOG.trace("getDetailVersion({}), service", id);
+    return dao.getDetailVersion(id);
+  }
+
+  @Override
+  public String allHorsesVersion() {
+    LOG.trace("allHorsesVersion(), service");
+    return dao.getAllVersion();
+  }
+
+  @Override
+  public String horsePageVersion(Long after, int limit) throws ValidationException {
+    LOG.trace("horsePageVersion({}, {}), service", after, limit);
+    validatePageLimit(limit);
+    return dao.getPageVersion(after, limit);
+  }
+
+  @Override
+  public String allHorsesVersion(HorseSearchDto searchParameters) {
+    LOG.trace("allHorsesVersion({}), service", searchParameters);
+    // the same distinction as in allHorses(HorseSearchDto); the suggestions are versioned without their limit,
+    // so the version does not depend on whether the name index or the database picked them
+    return searchParameters.ownerName() != null
+        ? dao.getAllVersion(searchParameters)
+        : dao.searchVersion(searchParameters);
+  }
+
+  @Override
+  public String horsesByIdVersion(List<Long> ids) throws ValidationException {
+    LOG.trace("horsesByIdVersion({}), service", ids);
+    validateLookup(ids);
+    return dao.getAllByIdVersion(new HashSet<>(ids));
+  }
+
+  @Override
+  public String getFamilyTreeVersion(HorseFamilyTreeDto parameters) {
+    LOG.trace("getFamilyTreeVersion({}), service", parameters);
+    return dao.getFamilyTreeVersion(parameters);
   }
 
   @Override
@@ -159,13 +529,23 @@ public class HorseServiceImpl implements HorseService {
       throw new NotFoundException("Horse with id " + id + " was not found");
     }
     dao.delete(id);
+    detailCache.invalidateHorse(id);
+    nameIndex.remove(id);
+    pedigree.remove(id);
   }
 
   @Override
   public Stream<HorseFamilyTreeDto> getFamilyTree(HorseFamilyTreeDto parameters) throws ValidationException {
     LOG.trace("getFamilyTree({}), service", parameters);
     try {
-      List<Horse> familyTree = dao.getFamilyTree(parameters);
+      List<Horse> familyTree = List.of();
+      if (pedigree.isEnabled() && parameters.id() != null && parameters.generations() != null) {
+        familyTree = pedigree.read(graph -> graph.familyTree(parameters.id(), parameters.generations()));
+      }
+      if (familyTree.isEmpty()) {
+        // the horse is not known to the in-memory pedigree (or it is disabled), ask the database
+        familyTree = dao.getFamilyTree(parameters);
+      }
       return familyTree.stream()
           .map(horse -> mapper.entityToFamilyTreeDto(horse, parameters.generations()));
     } catch (NumberFormatException n) {
@@ -173,15 +553,130 @@ public class HorseServiceImpl implements HorseService {
     }
   }
 
-  private Map<Long, OwnerDto> ownerMapForSingleId(Long ownerId) {
-    LOG.trace("ownerMapForSingleId({}), service", ownerId);
-    try {
-      return ownerId == null
-          ? null
-          : Collections.singletonMap(ownerId, ownerService.getById(ownerId));
-    } catch (NotFoundException e) {
-      throw new FatalException("Owner %d referenced by horse not found".formatted(ownerId));
+  @Override
+  public Stream<HorseFamilyTreeDto> getDescendants(long id, long generations) throws NotFoundException, ValidationException {
+    LOG.trace("getDescendants({}, {}), service", id, generations);
+    if (generations < 1) {
+      throw new ValidationException("Validation of getDescendants failed", Collections.singletonList("The number of generations must be positive"));
     }
+    return dao.getDescendants(id, generations).stream()
+        .map(horse -> mapper.entityToFamilyTreeDto(horse, generations));
   }
 
+  @Override
+  public HorseInbreedingDto getInbreeding(long id, long generations) throws NotFoundException, ValidationException {
+    LOG.trace("getInbreeding({}, {}), service", id, generations);
+    if (generations < 1 || generations > Kinship.MAX_GENERATIONS) {
+      throw new ValidationException("Validation of getInbreeding failed",
+          Collections.singletonList("The number of generations must be between 1 and " + Kinship.MAX_GENERATIONS));
+    }
+    return queryPedigree(graph -> {
+      int index = graph.index(id);
+      double coefficient = graph.kinship().inbreeding(index, (int) generations);
+      List<CommonAncestorDto> commonAncestors = new ArrayList<>();
+      if (graph.mother(index) != PedigreeGraph.NONE && graph.father(index) != PedigreeGraph.NONE) {
+        // the parents' own pedigrees reach one generation less far back
+        Map<Integer, Integer> motherSide = graph.ancestorDistances(graph.mother(index), generations - 1);
+        motherSide.put(graph.mother(index), 0);
+        Map<Integer, Integer> fatherSide = graph.ancestorDistances(graph.father(index), generations - 1);
+        fatherSide.put(graph.father(index), 0);
+        motherSide.forEach((ancestor, distance) -> {
+          Integer fatherDistance = fatherSide.get(ancestor);
+          if (fatherDistance != null) {
+            commonAncestors.add(new CommonAncestorDto(graph.id(ancestor), graph.horse(ancestor).getName(), distance + 1, fatherDistance + 1));
+          }
+        });
+      }
+      commonAncestors.sort(Comparator.comparingInt((CommonAncestorDto a) -> a.motherSideDistance() + a.fatherSideDistance())
+          .thenComparing(CommonAncestorDto::id));
+      return new HorseInbreedingDto(id, generations, coefficient, commonAncestors);
+    }, id);
+  }
+
+  @Override
+  public MatingCandidatesDto getMatingCandidates(long mareId, MatingCandidateSearchDto parameters) throws NotFoundException, ValidationException {
+    LOG.trace("getMatingCandidates({}, {}), service", mareId, parameters);
+    int limit = Objects.requireNonNullElse(parameters.limit(), DEFAULT_MATING_CANDIDATES);
+    int generations = Objects.requireNonNullElse(parameters.generations(), DEFAULT_MATING_GENERATIONS);
+    long timeoutMillis = Objects.requireNonNullElse(parameters.timeoutMillis(), DEFAULT_MATING_TIMEOUT_MILLIS);
+    List<String> validationErrors = new ArrayList<>();
+    if (limit < 1 || limit > MAX_MATING_CANDIDATES) {
+      validationErrors.add("The number of candidates must be between 1 and " + MAX_MATING_CANDIDATES);
+    }
+    if (generations < 2 || generations > Kinship.MAX_GENERATIONS) {
+      validationErrors.add("The number of generations must be between 2 and " + Kinship.MAX_GENERATIONS);
+    }
+    if (timeoutMillis < 1 || timeoutMillis > MAX_MATING_TIMEOUT_MILLIS) {
+      validationErrors.add("The timeout must be between 1 and " + MAX_MATING_TIMEOUT_MILLIS + " milliseconds");
+    }
+    if (!validationErrors.isEmpty()) {
+      throw new ValidationException("Validation of mating candidate search failed", validationErrors);
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    // only collect what the ranking needs under the lock, the ranking itself must not block changes of horses
+    MatingSearch search = queryPedigree(graph -> {
+      int mare = graph.index(mareId);
+      if (graph.isMale(mare)) {
+        return Optional.<MatingSearch>empty();
+      }
+      return Optional.of(new MatingSearch(mare, graph.kinship(), MatingPlanner.Stallions.of(graph)));
+    }, mareId).orElseThrow(() -> new ValidationException("Validation of mating candidate search failed",
+        Collections.singletonList("The horse must be a mare")));
+    MatingPlanner.Ranking ranking = matingPlanner.rank(search.kinship(), search.stallions(), search.mare(), generations, limit, deadline);
+    // stallions deleted while ranking are left out
+    List<MatingCandidateDto> candidates = pedigree.read(graph -> ranking.candidates().stream()
+        .filter(candidate -> graph.contains(candidate.id()))
+        .map(candidate -> {
+          Horse stallion = graph.horse(graph.index(candidate.id()));
+          return new MatingCandidateDto(stallion.getId(), stallion.getName(), stallion.getDateOfBirth(), candidate.inbreeding());
+        })
+        .toList());
+    return new MatingCandidatesDto(mareId, ranking.complete(), ranking.evaluated(), candidates);
+  }
+
+  /**
+   * What a mating candidate search needs from the pedigree, collected while it is locked.
+   */
+  private record MatingSearch(int mare, Kinship kinship, MatingPlanner.Stallions stallions) {
+  }
+
+  @Override
+  public HorseRelationshipDto getRelationship(long id, long otherId) throws NotFoundException {
+    LOG.trace("getRelationship({}, {}), service", id, otherId);
+    return queryPedigree(graph -> {
+      List<RelationshipAncestorDto> closest = graph.closestCommonAncestors(graph.index(id), graph.index(otherId)).stream()
+          .map(ancestor -> new RelationshipAncestorDto(graph.id(ancestor.index()), graph.horse(ancestor.index()).getName(),
+              ancestor.distance(), ancestor.otherDistance()))
+          .toList();
+      Integer generations = closest.isEmpty() ? null : closest.get(0).distance() + closest.get(0).otherDistance();
+      return new HorseRelationshipDto(id, otherId, generations, closest);
+    }, id, otherId);
+  }
+
+  /**
+   * Run {@code query} on the pedigree, which contains the horses with the given IDs.
+   * If one of them is missing from the pedigree, but exists in the persistent data store,
+   * it was stored bypassing this service, so the pedigree is outdated and rebuilt.
+   *
+   * @param query the query, must not return {@code null}
+   * @param ids   the IDs of the horses the query needs
+   * @throws NotFoundException if one of the horses does not exist in the persistent data store
+   */
+  private <T> T queryPedigree(Function<PedigreeGraph, T> query, long... ids) throws NotFoundException {
+    Function<PedigreeGraph, T> guarded = graph -> Arrays.stream(ids).allMatch(graph::contains) ? query.apply(graph) : null;
+    T result = pedigree.read(guarded);
+    if (result == null) {
+      for (long id : ids) {
+        dao.getById(id);
+      }
+      pedigree.rebuild();
+      result = pedigree.read(guarded);
+      if (result == null) {
+        // deleted while the pedigree was rebuilt
+        throw new NotFoundException("Horses %s are not in the pedigree".formatted(Arrays.toString(ids)));
+      }
+    }
+    return result;
+  }
 }
@@ -1,7 +1,6 @@
 package at.ac.tuwien.sepm.assignment.individual.service.impl;
 
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
-import at.ac.tuwien.sepm.assignment.individual.entity.Horse;
 import at.ac.tuwien.sepm.assignment.individual.exception.ConflictException;
 import at.ac.tuwien.sepm.assignment.individual.exception.ValidationException;
 import at.ac.tuwien.sepm.assignment.individual.type.Sex;
@@ -13,14 +12,20 @@ import java.lang.invoke.MethodHandles;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 
 @Component
 public class HorseValidator {
   private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
 
-  public void validateForUpdate(HorseDetailDto horse, List<Horse> horses) throws ValidationException, ConflictException {
+  /**
+   * @param horse                 the updated data of the horse
+   * @param parentOfOppositeSex   whether the horse is already the parent of some horse in the role of the other sex
+   *                              than {@code horse.sex()}, i.e. the mother of a horse if it is to be male
+   * @param becomesOwnAncestor    whether the horse is an ancestor of its new mother or father
+   */
+  public void validateForUpdate(HorseDetailDto horse, boolean parentOfOppositeSex, boolean becomesOwnAncestor)
+      throws ValidationException, ConflictException {
     LOG.trace("validateForUpdate({})", horse);
     List<String> validationErrors = new ArrayList<>();
     List<String> conflictErrors = new ArrayList<>();
@@ -59,13 +64,11 @@ public class HorseValidator {
 
     if (horse.sex() == null) {
       validationErrors.add("Sex cannot be empty");
-    } else {
-      for (Horse child : horses) {
-        if ((Objects.equals(child.getMotherId(), horse.id()) && horse.sex() != Sex.FEMALE)
-            || (Objects.equals(child.getFatherId(), horse.id()) && horse.sex() != Sex.MALE)) {
-          conflictErrors.add("Horse is already a parent. Cannot change sex");
-        }
-      }
+    } else if (parentOfOppositeSex) {
+      conflictErrors.add("Horse is already a parent. Cannot change sex");
+    }
+    if (becomesOwnAncestor) {
+      conflictErrors.add("Horse cannot be an ancestor of its own parents");
     }
 
     if (horse.mother() != null) {
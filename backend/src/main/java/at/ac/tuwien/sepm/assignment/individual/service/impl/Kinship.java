@@ -0,0 +1,254 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Kinship and inbreeding coefficients on a {@link PedigreeGraph}, using the recursive (tabular) method.
+ * <p>
+ * The kinship of two horses is the probability that two alleles drawn at random, one from each of them,
+ * are identical by descent. The coefficient of inbreeding (Wright) of a horse is the kinship of its parents.
+ * Of two different horses, the one that can not be an ancestor of the other is replaced by its parents:
+ * {@code f(a, b) = (f(mother(a), b) + f(father(a), b)) / 2}, and {@code f(a, a) = (1 + F(a)) / 2}.
+ * </p>
+ * <p>
+ * Every pedigree is only considered up to a number of generations, so every horse is paired with
+ * the number of generations above it that are still known. All computed values are memoized in a
+ * primitive-keyed table, which makes the computation polynomial in the size of the pedigree
+ * instead of exponential in the number of generations, and lets later queries on overlapping pedigrees
+ * reuse earlier results. The memo belongs to the graph it was computed on and is dropped on every change of the graph.
+ * The parents are copied from the graph when the calculator is created, so it can be used without holding
+ * the lock of the graph, and keeps answering for the graph as it was then.
+ * This class is safe for concurrent use.
+ * </p>
+ */
+public final class Kinship {
+  /**
+   * The maximum number of generations, counting the horse itself, that can be considered.
+   */
+  public static final int MAX_GENERATIONS = 64;
+  private static final int BUDGET_BITS = 6;
+  private static final int INDEX_BITS = 26;
+  private static final int STRIPES = 64;
+  private static final int MAX_ENTRIES_PER_STRIPE = 1 << 16;
+  private static final int UNKNOWN = -1;
+  private static final int IN_PROGRESS = -2;
+
+  private final int[] mothers;
+  private final int[] fathers;
+  private final int[] heights;
+  private final LongDoubleMap[] memo = new LongDoubleMap[STRIPES];
+
+  Kinship(PedigreeGraph graph) {
+    if (graph.capacity() >= 1 << INDEX_BITS) {
+      throw new IllegalStateException("Pedigree too large for the kinship table: " + graph.capacity() + " horses");
+    }
+    this.mothers = new int[graph.capacity()];
+    this.fathers = new int[graph.capacity()];
+    for (int i = 0; i < graph.capacity(); i++) {
+      mothers[i] = graph.mother(i);
+      fathers[i] = graph.father(i);
+    }
+    this.heights = new int[graph.capacity()];
+    Arrays.fill(heights, UNKNOWN);
+    for (int i = 0; i < STRIPES; i++) {
+      memo[i] = new LongDoubleMap();
+    }
+  }
+
+  /**
+   * The coefficient of inbreeding of a horse, considering its pedigree up to {@code generations} generations.
+   *
+   * @param index       the index of the horse in the graph
+   * @param generations the number of generations, counting the horse itself; at most {@link #MAX_GENERATIONS}
+   * @return the coefficient of inbreeding, between 0 and 1
+   */
+  public double inbreeding(int index, int generations) {
+    return inbreedingWithin(index, Math.min(generations, MAX_GENERATIONS) - 1);
+  }
+
+  /**
+   * The coefficient of inbreeding a foal of {@code mother} and {@code father} would have, which is their kinship.
+   *
+   * @param mother      the index of the mother in the graph
+   * @param father      the index of the father in the graph
+   * @param generations the number of generations of the foal's pedigree to consider, counting the foal itself;
+   *                    at most {@link #MAX_GENERATIONS}
+   * @return the coefficient of inbreeding of the foal, between 0 and 1
+   */
+  public double offspringInbreeding(int mother, int father, int generations) {
+    int budget = Math.min(generations, MAX_GENERATIONS) - 2;
+    if (budget < 0) {
+      return 0;
+    }
+    return kinship(mother, budget, father, budget);
+  }
+
+  /**
+   * @param budget the number of known generations above the horse
+   */
+  private double inbreedingWithin(int index, int budget) {
+    if (budget < 1) {
+      return 0;
+    }
+    int mother = mothers[index];
+    int father = fathers[index];
+    if (mother == PedigreeGraph.NONE || father == PedigreeGraph.NONE) {
+      return 0;
+    }
+    return kinship(mother, budget - 1, father, budget - 1);
+  }
+
+  private double kinship(int a, int budgetA, int b, int budgetB) {
+    // beyond the height of a pedigree nothing is cut off, so larger budgets are all the same
+    budgetA = Math.min(budgetA, height(a));
+    budgetB = Math.min(budgetB, height(b));
+    if (a > b || (a == b && budgetA > budgetB)) {
+      return kinship(b, budgetB, a, budgetA);
+    }
+    long key = ((long) a << (INDEX_BITS + 2 * BUDGET_BITS)) | ((long) b << (2 * BUDGET_BITS)) | ((long) budgetA << BUDGET_BITS) | budgetB;
+    LongDoubleMap stripe = memo[(int) (mix(key) >>> 58)];
+    double value = stripe.get(key);
+    if (!Double.isNaN(value)) {
+      return value;
+    }
+
+    if (a == b) {
+      value = (1 + inbreedingWithin(a, budgetA)) / 2;
+    } else if (height(a) >= height(b)) {
+      // a is not an ancestor of b
+      value = parentsKinship(a, budgetA, b, budgetB);
+    } else {
+      value = parentsKinship(b, budgetB, a, budgetA);
+    }
+    stripe.put(key, value);
+    return value;
+  }
+
+  private double parentsKinship(int younger, int budgetYounger, int other, int budgetOther) {
+    if (budgetYounger < 1) {
+      return 0;
+    }
+    double sum = 0;
+    int mother = mothers[younger];
+    if (mother != PedigreeGraph.NONE) {
+      sum += kinship(mother, budgetYounger - 1, other, budgetOther);
+    }
+    int father = fathers[younger];
+    if (father != PedigreeGraph.NONE) {
+      sum += kinship(father, budgetYounger - 1, other, budgetOther);
+    }
+    return sum / 2;
+  }
+
+  /**
+   * The length of the longest line of known ancestors above a horse.
+   * An ancestor always has a smaller height than its descendants.
+   */
+  private int height(int index) {
+    int known = heights[index];
+    if (known >= 0) {
+      return known;
+    }
+    // iterative post-order walk, deep pedigrees must not overflow the stack
+    Deque<Integer> stack = new ArrayDeque<>();
+    stack.push(index);
+    int[] marks = heights;
+    synchronized (marks) {
+      while (!stack.isEmpty()) {
+        int current = stack.peek();
+        if (marks[current] >= 0) {
+          stack.pop();
+          continue;
+        }
+        marks[current] = IN_PROGRESS;
+        int mother = mothers[current];
+        int father = fathers[current];
+        boolean pending = false;
+        for (int parent : new int[] {mother, father}) {
+          if (parent != PedigreeGraph.NONE && marks[parent] == UNKNOWN) {
+            stack.push(parent);
+            pending = true;
+          }
+        }
+        if (!pending) {
+          // a parent still in progress means the data contains a cycle, which is ignored
+          int height = 0;
+          for (int parent : new int[] {mother, father}) {
+            if (parent != PedigreeGraph.NONE && marks[parent] >= 0) {
+              height = Math.max(height, marks[parent] + 1);
+            }
+          }
+          marks[current] = height;
+          stack.pop();
+        }
+      }
+    }
+    return heights[index];
+  }
+
+  private static long mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xFF51AFD7ED558CCDL;
+    key ^= key >>> 33;
+    return key;
+  }
+
+  /**
+   * Open addressing hash map from packed keys to kinship values, without boxing.
+   * Synchronized, as queries may run in parallel; it is cleared once it gets too large.
+   */
+  private static final class LongDoubleMap {
+    private static final long EMPTY = -1L;
+    private long[] keys = newKeys(16);
+    private double[] values = new double[16];
+    private int count;
+
+    synchronized double get(long key) {
+      int mask = keys.length - 1;
+      for (int slot = (int) mix(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+        if (keys[slot] == key) {
+          return values[slot];
+        }
+      }
+      return Double.NaN;
+    }
+
+    synchronized void put(long key, double value) {
+      if (count >= MAX_ENTRIES_PER_STRIPE) {
+        keys = newKeys(16);
+        values = new double[16];
+        count = 0;
+      }
+      if ((count + 1) * 2 > keys.length) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        keys = newKeys(oldKeys.length * 2);
+        values = new double[oldKeys.length * 2];
+        count = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+          if (oldKeys[i] != EMPTY) {
+            put(oldKeys[i], oldValues[i]);
+          }
+        }
+      }
+      int mask = keys.length - 1;
+      int slot = (int) mix(key) & mask;
+      while (keys[slot] != EMPTY && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      if (keys[slot] == EMPTY) {
+        count++;
+      }
+      keys[slot] = key;
+      values[slot] = value;
+    }
+
+    private static long[] newKeys(int capacity) {
+      long[] keys = new long[capacity];
+      Arrays.fill(keys, EMPTY);
+      return keys;
+    }
+  }
+}
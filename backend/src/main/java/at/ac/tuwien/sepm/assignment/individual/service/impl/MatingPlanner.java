@@ -0,0 +1,170 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ranks stallions by the coefficient of inbreeding a foal of them and a given mare would have.
+ * <p>
+ * The stallions are split into ranges that are evaluated in parallel on a fork-join pool of its own,
+ * so long rankings neither starve the common pool nor take more than {@code app.mating.parallelism} threads.
+ * Every range only keeps its best candidates in a bounded heap, the heaps are merged when the ranges are joined.
+ * Once the deadline has passed, no further stallions are evaluated and the best of the evaluated ones are returned.
+ * </p>
+ * <p>
+ * Only the {@link Stallions} have to be collected while the graph is locked. The ranking itself works on them and on
+ * the {@link Kinship} calculator, which holds its own copy of the parents, so it runs without holding the lock.
+ * </p>
+ */
+@Component
+public class MatingPlanner {
+  private static final int LEAF_SIZE = 256;
+  private static final int DEADLINE_CHECK_INTERVAL = 64;
+  // best candidate first: lowest inbreeding, then lowest ID for a stable order
+  private static final Comparator<Candidate> BEST_FIRST = Comparator.comparingDouble(Candidate::inbreeding)
+      .thenComparingLong(Candidate::id);
+
+  private final ForkJoinPool pool;
+
+  public MatingPlanner(@Value("${app.mating.parallelism:0}") int parallelism) {
+    this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * The stallions of a pedigree, by their index in the graph and their ID.
+   */
+  public record Stallions(int[] indexes, long[] ids) {
+    /**
+     * Collect the stallions of {@code graph}; the graph must not be modified meanwhile.
+     */
+    public static Stallions of(PedigreeGraph graph) {
+      int[] indexes = new int[graph.capacity()];
+      int count = 0;
+      for (int i = 0; i < graph.capacity(); i++) {
+        if (graph.isPresent(i) && graph.isMale(i)) {
+          indexes[count++] = i;
+        }
+      }
+      long[] ids = new long[count];
+      for (int i = 0; i < count; i++) {
+        ids[i] = graph.id(indexes[i]);
+      }
+      return new Stallions(Arrays.copyOf(indexes, count), ids);
+    }
+  }
+
+  /**
+   * A stallion and the coefficient of inbreeding of a foal of it and the mare.
+   */
+  public record Candidate(long id, int index, double inbreeding) {
+  }
+
+  /**
+   * The result of a ranking.
+   *
+   * @param candidates the best candidates, best first
+   * @param evaluated  the number of stallions evaluated before the deadline
+   * @param total      the number of stallions that could have been evaluated
+   */
+  public record Ranking(List<Candidate> candidates, int evaluated, int total) {
+    public boolean complete() {
+      return evaluated == total;
+    }
+  }
+
+  /**
+   * Rank {@code stallions} for {@code mare}.
+   *
+   * @param kinship       the kinship calculator of the pedigree the stallions were collected from
+   * @param stallions     the stallions to rank
+   * @param mare          the index of the mare
+   * @param generations   the number of generations of the foal's pedigree to consider, counting the foal
+   * @param limit         the maximum number of candidates to return
+   * @param deadlineNanos the {@link System#nanoTime()} after which no more stallions are evaluated
+   * @return the best {@code limit} stallions, best first
+   */
+  public Ranking rank(Kinship kinship, Stallions stallions, int mare, int generations, int limit, long deadlineNanos) {
+    AtomicInteger evaluated = new AtomicInteger();
+    int count = stallions.indexes().length;
+    var task = new RankTask(kinship, stallions, 0, count, mare, generations, limit, deadlineNanos, evaluated);
+    PriorityQueue<Candidate> best = pool.invoke(task);
+    List<Candidate> candidates = new ArrayList<>(best);
+    candidates.sort(BEST_FIRST);
+    return new Ranking(candidates, evaluated.get(), count);
+  }
+
+  private static final class RankTask extends RecursiveTask<PriorityQueue<Candidate>> {
+    private final Kinship kinship;
+    private final Stallions stallions;
+    private final int from;
+    private final int to;
+    private final int mare;
+    private final int generations;
+    private final int limit;
+    private final long deadlineNanos;
+    private final AtomicInteger evaluated;
+
+    RankTask(Kinship kinship, Stallions stallions, int from, int to, int mare, int generations, int limit,
+             long deadlineNanos, AtomicInteger evaluated) {
+      this.kinship = kinship;
+      this.stallions = stallions;
+      this.from = from;
+      this.to = to;
+      this.mare = mare;
+      this.generations = generations;
+      this.limit = limit;
+      this.deadlineNanos = deadlineNanos;
+      this.evaluated = evaluated;
+    }
+
+    @Override
+    protected PriorityQueue<Candidate> compute() {
+      if (to - from > LEAF_SIZE) {
+        int middle = (from + to) >>> 1;
+        var left = new RankTask(kinship, stallions, from, middle, mare, generations, limit, deadlineNanos, evaluated);
+        var right = new RankTask(kinship, stallions, middle, to, mare, generations, limit, deadlineNanos, evaluated);
+        left.fork();
+        PriorityQueue<Candidate> best = right.compute();
+        for (Candidate candidate : left.join()) {
+          offer(best, candidate);
+        }
+        return best;
+      }
+      // worst candidate on top, so it can be replaced by a better one
+      PriorityQueue<Candidate> best = new PriorityQueue<>(limit + 1, BEST_FIRST.reversed());
+      for (int i = from; i < to; i++) {
+        if ((i - from) % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() - deadlineNanos > 0) {
+          break;
+        }
+        int stallion = stallions.indexes()[i];
+        offer(best, new Candidate(stallions.ids()[i], stallion, kinship.offspringInbreeding(mare, stallion, generations)));
+        evaluated.incrementAndGet();
+      }
+      return best;
+    }
+
+    private void offer(PriorityQueue<Candidate> best, Candidate candidate) {
+      if (best.size() < limit) {
+        best.add(candidate);
+      } else if (BEST_FIRST.compare(candidate, best.peek()) < 0) {
+        best.poll();
+        best.add(candidate);
+      }
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import at.ac.tuwien.sepm.assignment.individual.dto.OwnerDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of owners by their ID, in front of the owner data access object.
+ * <p>
+ * Owners are evicted least recently used first once {@code maxSize} is reached,
+ * and are reloaded once they are older than {@code ttl}, so changes made
+ * directly in the persistent data store become visible eventually.
+ * Changes made through the owner service invalidate the affected owners immediately.
+ * Hits, misses, evictions for capacity and expirations are counted separately,
+ * and exposed via JMX (if {@code spring.jmx.enabled} is set).
+ * </p>
+ */
+@Component
+@ManagedResource(objectName = "at.ac.tuwien.sepm.assignment.individual:type=Cache,name=owners")
+public class OwnerCache {
+  private final boolean enabled;
+  private final int maxSize;
+  private final long ttlNanos;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+  private final LinkedHashMap<Long, Entry> entries;
+
+  private record Entry(OwnerDto owner, long loadedAt) {
+  }
+
+  public OwnerCache(
+      @Value("${app.owner-cache.enabled:true}") boolean enabled,
+      @Value("${app.owner-cache.max-size:10000}") int maxSize,
+      @Value("${app.owner-cache.ttl:5m}") Duration ttl) {
+    this.enabled = enabled && maxSize > 0;
+    this.maxSize = maxSize;
+    this.ttlNanos = ttl.toNanos();
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+        if (size() > OwnerCache.this.maxSize) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Get a cached owner.
+   *
+   * @param id the ID of the owner
+   * @return the cached owner, or {@code null} if it is not cached, or the cache is disabled
+   */
+  public OwnerDto get(long id) {
+    if (!enabled) {
+      return null;
+    }
+    synchronized (entries) {
+      Entry entry = entries.get(id);
+      if (entry != null && System.nanoTime() - entry.loadedAt() > ttlNanos) {
+        entries.remove(id);
+        expirations.increment();
+        entry = null;
+      }
+      if (entry == null) {
+        misses.increment();
+        return null;
+      }
+      hits.increment();
+      return entry.owner();
+    }
+  }
+
+  /**
+   * Cache an owner just loaded from the persistent data store.
+   *
+   * @param owner the owner
+   */
+  public void put(OwnerDto owner) {
+    if (!enabled) {
+      return;
+    }
+    synchronized (entries) {
+      entries.put(owner.id(), new Entry(owner, System.nanoTime()));
+    }
+  }
+
+  /**
+   * Drop an owner from the cache, because it was created, updated or deleted.
+   *
+   * @param id the ID of the owner
+   */
+  public void invalidate(long id) {
+    if (!enabled) {
+      return;
+    }
+    synchronized (entries) {
+      entries.remove(id);
+    }
+  }
+
+  @ManagedOperation(description = "Drop all cached owners")
+  public void invalidateAll() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  @ManagedAttribute
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @ManagedAttribute
+  public int getSize() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  @ManagedAttribute
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @ManagedAttribute
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return the number of owners dropped to stay within {@code maxSize}
+   */
+  @ManagedAttribute
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return the number of owners dropped because they were older than {@code ttl}
+   */
+  @ManagedAttribute
+  public long getExpirations() {
+    return expirations.sum();
+  }
+}
@@ -3,7 +3,6 @@ package at.ac.tuwien.sepm.assignment.individual.service.impl;
 import at.ac.tuwien.sepm.assignment.individual.dto.OwnerCreateDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.OwnerDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.OwnerSearchDto;
-import at.ac.tuwien.sepm.assignment.individual.entity.Owner;
 import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
 import at.ac.tuwien.sepm.assignment.individual.exception.ValidationException;
 import at.ac.tuwien.sepm.assignment.individual.mapper.OwnerMapper;
@@ -14,10 +13,12 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Service
@@ -27,29 +28,37 @@ public class OwnerServiceImpl implements OwnerService {
   private final OwnerDao dao;
   private final OwnerMapper mapper;
   private final OwnerValidator validator;
+  private final OwnerCache cache;
+  private final HorseDetailCache horseDetailCache;
 
   public OwnerServiceImpl(
       OwnerDao dao,
       OwnerMapper mapper,
-      OwnerValidator validator) {
+      OwnerValidator validator,
+      OwnerCache cache,
+      HorseDetailCache horseDetailCache) {
     this.dao = dao;
     this.mapper = mapper;
     this.validator = validator;
+    this.cache = cache;
+    this.horseDetailCache = horseDetailCache;
   }
 
   @Override
   public OwnerDto getById(long id) throws NotFoundException {
     LOG.trace("getById({})", id);
-    return mapper.entityToDto(dao.getById(id));
+    OwnerDto owner = cache.get(id);
+    if (owner == null) {
+      owner = mapper.entityToDto(dao.getById(id));
+      cache.put(owner);
+    }
+    return owner;
   }
 
   @Override
   public Map<Long, OwnerDto> getAllById(Collection<Long> ids) throws NotFoundException {
     LOG.trace("getAllById({})", ids);
-    Map<Long, OwnerDto> owners =
-        dao.getAllById(ids).stream()
-            .map(mapper::entityToDto)
-            .collect(Collectors.toUnmodifiableMap(OwnerDto::id, Function.identity()));
+    Map<Long, OwnerDto> owners = findAllById(ids);
     for (final var id : ids) {
       if (!owners.containsKey(id)) {
         throw new NotFoundException("Owner with ID %d not found".formatted(id));
@@ -58,6 +67,29 @@ public class OwnerServiceImpl implements OwnerService {
     return owners;
   }
 
+  @Override
+  public Map<Long, OwnerDto> findAllById(Collection<Long> ids) {
+    LOG.trace("findAllById({})", ids);
+    Map<Long, OwnerDto> owners = new HashMap<>();
+    List<Long> uncached = new ArrayList<>();
+    for (final var id : ids) {
+      OwnerDto owner = cache.get(id);
+      if (owner != null) {
+        owners.put(id, owner);
+      } else {
+        uncached.add(id);
+      }
+    }
+    if (!uncached.isEmpty()) {
+      for (var entity : dao.getAllById(uncached)) {
+        OwnerDto owner = mapper.entityToDto(entity);
+        cache.put(owner);
+        owners.put(owner.id(), owner);
+      }
+    }
+    return Collections.unmodifiableMap(owners);
+  }
+
   @Override
   public Stream<OwnerDto> search(OwnerSearchDto searchParameters) {
     LOG.trace("search({})", searchParameters);
@@ -68,9 +100,10 @@ public class OwnerServiceImpl implements OwnerService {
   @Override
   public OwnerDto create(OwnerCreateDto newOwner) throws ValidationException {
     LOG.trace("create({})", newOwner);
-    Collection<Owner> allOwners = dao.search(new OwnerSearchDto("", Integer.MAX_VALUE));
-    validator.validateForCreate(newOwner, allOwners);
-    return mapper.entityToDto(dao.create(newOwner));
-
+    validator.validateForCreate(newOwner);
+    OwnerDto created = mapper.entityToDto(dao.create(newOwner));
+    cache.invalidate(created.id());
+    horseDetailCache.invalidateOwner(created.id());
+    return created;
   }
 }
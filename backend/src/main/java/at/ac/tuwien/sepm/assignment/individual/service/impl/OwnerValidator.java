@@ -1,7 +1,6 @@
 package at.ac.tuwien.sepm.assignment.individual.service.impl;
 
 import at.ac.tuwien.sepm.assignment.individual.dto.OwnerCreateDto;
-import at.ac.tuwien.sepm.assignment.individual.entity.Owner;
 import at.ac.tuwien.sepm.assignment.individual.exception.ValidationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,7 +8,6 @@ import org.springframework.stereotype.Component;
 
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -21,7 +19,11 @@ public class OwnerValidator {
       "^[A-Za-z0-9._%+-]+@[A-Za-z0-9.-]+\\.[A-Za-z]{2,6}$"
   );
 
-  public void validateForCreate(OwnerCreateDto newOwner, Collection<Owner> allOwners) throws ValidationException {
+  /**
+   * Validate the data of a new owner in itself.
+   * Whether the email address is already used is left to the unique index of the persistent data store.
+   */
+  public void validateForCreate(OwnerCreateDto newOwner) throws ValidationException {
     LOG.trace("validateForCreate({}), OwnerValidator", newOwner);
     List<String> validationErrors = new ArrayList<>();
     if (newOwner.firstName() == null) {
@@ -50,12 +52,6 @@ public class OwnerValidator {
       Matcher matcher = EMAIL_REGEX.matcher(newOwner.email());
       if (!matcher.matches()) {
         validationErrors.add("Owner email is invalid. Please provide a valid email");
-      } else {
-        for (Owner owner : allOwners) {
-          if (owner.getEmail() != null && newOwner.email().equals(owner.getEmail())) {
-            validationErrors.add("Email is already used. Please provide another email");
-          }
-        }
       }
     }
     if (!validationErrors.isEmpty()) {
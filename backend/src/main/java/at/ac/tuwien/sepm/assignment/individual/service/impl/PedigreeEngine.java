@@ -0,0 +1,149 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import at.ac.tuwien.sepm.assignment.individual.entity.Horse;
+import at.ac.tuwien.sepm.assignment.individual.persistence.HorseDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Keeps the {@link PedigreeGraph} of all horses in memory, so pedigree queries do not need the database.
+ * <p>
+ * The graph is built from the persistent data store on first use, and kept up to date by the horse service
+ * on create, update and delete, so the kinship memo of the graph survives between requests.
+ * Inbreeding, mating candidates and relationships are always answered from it;
+ * if enabled, family trees are as well, instead of with the recursive query.
+ * </p>
+ */
+@Component
+public class PedigreeEngine {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final HorseDao dao;
+  private final boolean enabled;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private PedigreeGraph graph;
+
+  public PedigreeEngine(HorseDao dao, @Value("${app.pedigree-engine.enabled:false}") boolean enabled) {
+    this.dao = dao;
+    this.enabled = enabled;
+  }
+
+  /**
+   * @return whether family trees are answered from the in-memory pedigree
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Run {@code query} against the pedigree of all horses.
+   * The pedigree is not modified while the query runs.
+   *
+   * @param query the query, must not modify the graph
+   * @param <T>   the type of the query result
+   * @return the result of the query
+   */
+  public <T> T read(Function<PedigreeGraph, T> query) {
+    ensureBuilt();
+    lock.readLock().lock();
+    try {
+      return query.apply(graph);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Add a horse to the pedigree, or replace its data.
+   *
+   * @param horse the created or updated horse
+   */
+  public void put(Horse horse) {
+    LOG.trace("put({})", horse);
+    lock.writeLock().lock();
+    try {
+      if (graph != null) {
+        graph.put(horse);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove a horse from the pedigree.
+   *
+   * @param id the ID of the deleted horse
+   */
+  public void remove(long id) {
+    LOG.trace("remove({})", id);
+    lock.writeLock().lock();
+    try {
+      if (graph != null) {
+        graph.remove(id);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Discard the pedigree, it is built anew from the persistent data store on next use.
+   * Needed after horses were changed without going through the horse service.
+   */
+  public void invalidate() {
+    LOG.debug("Invalidating pedigree");
+    lock.writeLock().lock();
+    try {
+      graph = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Discard the pedigree and build it anew from all horses in the persistent data store.
+   */
+  public void rebuild() {
+    LOG.debug("Building pedigree");
+    lock.writeLock().lock();
+    try {
+      graph = load();
+      LOG.debug("Loaded pedigree of {} horses", graph.horseCount());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private PedigreeGraph load() {
+    PedigreeGraph loaded = new PedigreeGraph();
+    dao.forEachPedigreeEntry(loaded::put);
+    return loaded;
+  }
+
+  private void ensureBuilt() {
+    lock.readLock().lock();
+    try {
+      if (graph != null) {
+        return;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    lock.writeLock().lock();
+    try {
+      if (graph == null) {
+        rebuild();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
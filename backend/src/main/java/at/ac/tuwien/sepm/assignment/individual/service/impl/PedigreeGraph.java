@@ -0,0 +1,594 @@
+package at.ac.tuwien.sepm.assignment.individual.service.impl;
+
+import at.ac.tuwien.sepm.assignment.individual.entity.Horse;
+import at.ac.tuwien.sepm.assignment.individual.type.Sex;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory pedigree of horses, held in primitive arrays.
+ * <p>
+ * Every horse ID is mapped to a dense index; the mother and father of the horse at index {@code i}
+ * are stored as dense indices in {@code mothers[i]} and {@code fathers[i]} ({@link #NONE} if unknown),
+ * and its children in {@code children[i]}, so removing a horse only touches its own children.
+ * Walking the pedigree therefore only touches int arrays, and never the database.
+ * </p>
+ * <p>
+ * A horse can be referenced as parent before it is added itself (e.g. while loading all horses),
+ * in that case it occupies an index, but is not {@link #contains(long) contained} until it is added.
+ * This class is not thread safe, callers need to synchronize access.
+ * </p>
+ */
+public final class PedigreeGraph {
+  public static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final LongIntMap indexById = new LongIntMap();
+  private long[] ids = new long[INITIAL_CAPACITY];
+  private int[] mothers = new int[INITIAL_CAPACITY];
+  private int[] fathers = new int[INITIAL_CAPACITY];
+  private int[][] children = new int[INITIAL_CAPACITY][];
+  private int[] childCounts = new int[INITIAL_CAPACITY];
+  private String[] names = new String[INITIAL_CAPACITY];
+  private long[] birthDays = new long[INITIAL_CAPACITY];
+  private boolean[] males = new boolean[INITIAL_CAPACITY];
+  private boolean[] present = new boolean[INITIAL_CAPACITY];
+  private int size;
+  private Kinship kinship;
+
+  /**
+   * Add a horse to the pedigree, or replace the data of a horse that is already in it.
+   * Only ID, name, date of birth, sex and the parent IDs of {@code horse} are used.
+   *
+   * @param horse the horse to add
+   */
+  public void put(Horse horse) {
+    int index = indexOf(horse.getId(), true);
+    names[index] = horse.getName();
+    birthDays[index] = horse.getDateOfBirth().toEpochDay();
+    males[index] = horse.getSex() == Sex.MALE;
+    int mother = horse.getMotherId() == null ? NONE : indexOf(horse.getMotherId(), true);
+    int father = horse.getFatherId() == null ? NONE : indexOf(horse.getFatherId(), true);
+    setParents(index, mother, father);
+    present[index] = true;
+    kinship = null;
+  }
+
+  /**
+   * Remove a horse from the pedigree.
+   * Like the foreign keys in the persistent data store, the parent references of its children are cleared.
+   *
+   * @param id the ID of the horse to remove
+   */
+  public void remove(long id) {
+    int index = indexById.get(id);
+    if (index == NONE) {
+      return;
+    }
+    present[index] = false;
+    kinship = null;
+    setParents(index, NONE, NONE);
+    for (int i = 0; i < childCounts[index]; i++) {
+      int child = children[index][i];
+      if (mothers[child] == index) {
+        mothers[child] = NONE;
+      }
+      if (fathers[child] == index) {
+        fathers[child] = NONE;
+      }
+    }
+    children[index] = null;
+    childCounts[index] = 0;
+  }
+
+  /**
+   * Set the parents of a horse, and move it between the children of its old and new parents.
+   */
+  private void setParents(int index, int mother, int father) {
+    if (mothers[index] != mother) {
+      removeChild(mothers[index], index);
+      addChild(mother, index);
+      mothers[index] = mother;
+    }
+    if (fathers[index] != father) {
+      removeChild(fathers[index], index);
+      addChild(father, index);
+      fathers[index] = father;
+    }
+  }
+
+  private void addChild(int parent, int child) {
+    if (parent == NONE) {
+      return;
+    }
+    int[] list = children[parent];
+    int count = childCounts[parent];
+    if (list == null) {
+      list = new int[2];
+    } else if (count == list.length) {
+      list = Arrays.copyOf(list, count * 2);
+    }
+    list[count] = child;
+    children[parent] = list;
+    childCounts[parent] = count + 1;
+  }
+
+  private void removeChild(int parent, int child) {
+    if (parent == NONE) {
+      return;
+    }
+    int[] list = children[parent];
+    int count = childCounts[parent];
+    for (int i = 0; i < count; i++) {
+      if (list[i] == child) {
+        list[i] = list[count - 1];
+        childCounts[parent] = count - 1;
+        return;
+      }
+    }
+  }
+
+  public boolean contains(long id) {
+    int index = indexById.get(id);
+    return index != NONE && present[index];
+  }
+
+  /**
+   * @return the number of horses in the pedigree
+   */
+  public int horseCount() {
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (present[i]) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * The dense index of the horse with the given ID.
+   *
+   * @param id the ID of the horse
+   * @return its index, or {@link #NONE} if the horse is not in the pedigree
+   */
+  public int index(long id) {
+    int index = indexById.get(id);
+    return index != NONE && present[index] ? index : NONE;
+  }
+
+  public long id(int index) {
+    return ids[index];
+  }
+
+  /**
+   * @return the index of the mother of the horse at {@code index}, or {@link #NONE}
+   */
+  public int mother(int index) {
+    int mother = mothers[index];
+    return mother != NONE && present[mother] ? mother : NONE;
+  }
+
+  /**
+   * @return the index of the father of the horse at {@code index}, or {@link #NONE}
+   */
+  public int father(int index) {
+    int father = fathers[index];
+    return father != NONE && present[father] ? father : NONE;
+  }
+
+  /**
+   * @return whether the horse at {@code index} is in the pedigree, and not only referenced as a parent
+   */
+  public boolean isPresent(int index) {
+    return present[index];
+  }
+
+  public boolean isMale(int index) {
+    return males[index];
+  }
+
+  /**
+   * @return the number of indices in use, an upper bound for all indices handed out by this pedigree
+   */
+  public int capacity() {
+    return size;
+  }
+
+  /**
+   * Convert the horse at {@code index} back into an entity.
+   * Description and owner are not part of the pedigree and therefore not set.
+   *
+   * @param index the index of the horse
+   * @return the horse
+   */
+  public Horse horse(int index) {
+    int mother = mother(index);
+    int father = father(index);
+    return new Horse()
+        .setId(ids[index])
+        .setName(names[index])
+        .setDateOfBirth(LocalDate.ofEpochDay(birthDays[index]))
+        .setSex(males[index] ? Sex.MALE : Sex.FEMALE)
+        .setMotherId(mother == NONE ? null : ids[mother])
+        .setFatherId(father == NONE ? null : ids[father]);
+  }
+
+  /**
+   * The family tree of a horse: the horse itself and all its ancestors
+   * less than {@code generations} generations away from it.
+   * Every horse is contained once, at the smallest distance it can be reached with,
+   * the horse itself first and then generation by generation, each ordered by ID.
+   * This is the same list the persistent data store returns.
+   *
+   * @param id          the ID of the horse
+   * @param generations the number of generations to include, counting the horse itself
+   * @return the horses of the family tree; empty if the horse is not in the pedigree
+   */
+  public List<Horse> familyTree(long id, long generations) {
+    int root = index(id);
+    List<Horse> tree = new ArrayList<>();
+    if (root == NONE || generations < 1) {
+      return tree;
+    }
+    IntSet visited = new IntSet();
+    int[] level = {root};
+    visited.add(root);
+    for (long depth = 0; depth < generations && level.length > 0; depth++) {
+      int[] next = new int[level.length * 2];
+      int nextSize = 0;
+      for (int index : level) {
+        tree.add(horse(index));
+        int mother = mother(index);
+        if (mother != NONE && visited.add(mother)) {
+          next[nextSize++] = mother;
+        }
+        int father = father(index);
+        if (father != NONE && visited.add(father)) {
+          next[nextSize++] = father;
+        }
+      }
+      level = Arrays.stream(next, 0, nextSize)
+          .boxed()
+          .sorted(Comparator.comparingLong(index -> ids[index]))
+          .mapToInt(Integer::intValue)
+          .toArray();
+    }
+    return tree;
+  }
+
+  /**
+   * The ancestors of a horse less than {@code generations} generations away from it,
+   * with the number of generations between them.
+   *
+   * @param index       the index of the horse
+   * @param generations the number of generations to include, counting the horse itself
+   * @return the indices of the ancestors, mapped to their smallest distance from the horse (parents are 1),
+   *     in the order they were found, generation by generation
+   */
+  public Map<Integer, Integer> ancestorDistances(int index, long generations) {
+    Map<Integer, Integer> distances = new LinkedHashMap<>();
+    int[] level = {index};
+    for (int distance = 1; distance < generations && level.length > 0; distance++) {
+      int[] next = new int[level.length * 2];
+      int nextSize = 0;
+      for (int current : level) {
+        for (int parent : new int[] {mother(current), father(current)}) {
+          if (parent != NONE && parent != index && distances.putIfAbsent(parent, distance) == null) {
+            next[nextSize++] = parent;
+          }
+        }
+      }
+      level = Arrays.copyOf(next, nextSize);
+    }
+    return distances;
+  }
+
+  /**
+   * A common ancestor of two horses, with its distance in generations from each of them (0 if it is the horse itself).
+   */
+  public record CommonAncestor(int index, int distance, int otherDistance) {
+  }
+
+  /**
+   * The closest common ancestors of two horses, i.e. those with the smallest sum of distances to both of them.
+   * If one horse is an ancestor of the other, it is itself the closest common ancestor, with distance 0 from itself.
+   * <p>
+   * Both pedigrees are walked upwards at the same time, one generation at a time, always advancing
+   * the side with the smaller frontier. Visited horses are tracked in hash maps holding only the horses reached,
+   * so meeting horses are found without materializing either pedigree,
+   * and without any work proportional to the size of the graph. Once a common ancestor is found, each side only continues
+   * as long as a closer one is still possible.
+   * </p>
+   *
+   * @param first  the index of the first horse
+   * @param second the index of the second horse
+   * @return the closest common ancestors ordered by index; empty if the horses are not related
+   */
+  public List<CommonAncestor> closestCommonAncestors(int first, int second) {
+    Side one = new Side(first);
+    Side other = new Side(second);
+    List<CommonAncestor> closest = new ArrayList<>();
+    int best = Integer.MAX_VALUE;
+    if (first == second) {
+      closest.add(new CommonAncestor(first, 0, 0));
+      return closest;
+    }
+    while (true) {
+      // an undiscovered common ancestor closer than the best one is at most best - 1 generations away from either horse
+      boolean oneCanAdvance = one.canAdvance(best);
+      boolean otherCanAdvance = other.canAdvance(best);
+      if (!oneCanAdvance && !otherCanAdvance) {
+        break;
+      }
+      Side advancing = !otherCanAdvance || (oneCanAdvance && one.frontierSize <= other.frontierSize) ? one : other;
+      Side opposite = advancing == one ? other : one;
+      for (int index : advancing.advance(this)) {
+        int otherDistance = opposite.depths.get(index);
+        if (otherDistance == NONE) {
+          continue;
+        }
+        int distance = advancing.depth;
+        int sum = distance + otherDistance;
+        if (sum < best) {
+          best = sum;
+          closest.clear();
+        }
+        if (sum == best) {
+          closest.add(advancing == one
+              ? new CommonAncestor(index, distance, otherDistance)
+              : new CommonAncestor(index, otherDistance, distance));
+        }
+      }
+    }
+    closest.sort((a, b) -> Integer.compare(a.index(), b.index()));
+    return closest;
+  }
+
+  /**
+   * One side of the search for common ancestors: the horses visited so far, and the generation each was visited in.
+   */
+  private static final class Side {
+    private final IntIntMap depths = new IntIntMap();
+    private int[] frontier;
+    private int frontierSize;
+    private int depth;
+
+    Side(int start) {
+      this.frontier = new int[] {start};
+      this.frontierSize = 1;
+      depths.putIfAbsent(start, 0);
+    }
+
+    boolean canAdvance(int best) {
+      return frontierSize > 0 && (best == Integer.MAX_VALUE || depth + 1 <= best - 1);
+    }
+
+    /**
+     * Visit the parents of the current frontier.
+     *
+     * @return the horses visited for the first time, which form the new frontier
+     */
+    int[] advance(PedigreeGraph graph) {
+      int[] next = new int[frontierSize * 2];
+      int nextSize = 0;
+      depth++;
+      for (int i = 0; i < frontierSize; i++) {
+        for (int parent : new int[] {graph.mother(frontier[i]), graph.father(frontier[i])}) {
+          if (parent != NONE && depths.putIfAbsent(parent, depth)) {
+            next[nextSize++] = parent;
+          }
+        }
+      }
+      frontier = Arrays.copyOf(next, nextSize);
+      frontierSize = nextSize;
+      return frontier;
+    }
+  }
+
+  /**
+   * The kinship calculator for this pedigree. Its memo is kept until the pedigree changes.
+   *
+   * @return the kinship calculator
+   */
+  public synchronized Kinship kinship() {
+    if (kinship == null) {
+      kinship = new Kinship(this);
+    }
+    return kinship;
+  }
+
+  private int indexOf(long id, boolean create) {
+    int index = indexById.get(id);
+    if (index != NONE || !create) {
+      return index;
+    }
+    if (size == ids.length) {
+      grow();
+    }
+    index = size++;
+    ids[index] = id;
+    mothers[index] = NONE;
+    fathers[index] = NONE;
+    indexById.put(id, index);
+    return index;
+  }
+
+  private void grow() {
+    int capacity = ids.length * 2;
+    ids = Arrays.copyOf(ids, capacity);
+    mothers = Arrays.copyOf(mothers, capacity);
+    fathers = Arrays.copyOf(fathers, capacity);
+    children = Arrays.copyOf(children, capacity);
+    childCounts = Arrays.copyOf(childCounts, capacity);
+    names = Arrays.copyOf(names, capacity);
+    birthDays = Arrays.copyOf(birthDays, capacity);
+    males = Arrays.copyOf(males, capacity);
+    present = Arrays.copyOf(present, capacity);
+  }
+
+  /**
+   * Open addressing hash map from horse IDs to dense indices, without boxing.
+   */
+  private static final class LongIntMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private long[] keys = newKeys(INITIAL_CAPACITY);
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int count;
+
+    int get(long key) {
+      int mask = keys.length - 1;
+      for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+        if (keys[slot] == key) {
+          return values[slot];
+        }
+      }
+      return NONE;
+    }
+
+    void put(long key, int value) {
+      if ((count + 1) * 2 > keys.length) {
+        rehash();
+      }
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (keys[slot] != EMPTY && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      if (keys[slot] == EMPTY) {
+        count++;
+      }
+      keys[slot] = key;
+      values[slot] = value;
+    }
+
+    private void rehash() {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = newKeys(oldKeys.length * 2);
+      values = new int[oldKeys.length * 2];
+      count = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != EMPTY) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    private static long[] newKeys(int capacity) {
+      long[] keys = new long[capacity];
+      Arrays.fill(keys, EMPTY);
+      return keys;
+    }
+
+    private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+  /**
+   * Open addressing hash set of non-negative ints, without boxing.
+   */
+  static final class IntSet {
+    private int[] slots = newSlots(16);
+    // Fibonacci hashing takes the top bits of the product, as many as the table needs
+    private int shift = Integer.numberOfLeadingZeros(slots.length - 1);
+    private int count;
+
+    /**
+     * @return true if {@code value} was not in the set before
+     */
+    boolean add(int value) {
+      if ((count + 1) * 2 > slots.length) {
+        int[] old = slots;
+        slots = newSlots(old.length * 2);
+        shift = Integer.numberOfLeadingZeros(slots.length - 1);
+        count = 0;
+        for (int v : old) {
+          if (v != NONE) {
+            add(v);
+          }
+        }
+      }
+      int mask = slots.length - 1;
+      int slot = (value * 0x9E3779B9) >>> shift;
+      while (slots[slot] != NONE) {
+        if (slots[slot] == value) {
+          return false;
+        }
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = value;
+      count++;
+      return true;
+    }
+
+    private static int[] newSlots(int capacity) {
+      int[] slots = new int[capacity];
+      Arrays.fill(slots, NONE);
+      return slots;
+    }
+  }
+
+  /**
+   * Open addressing hash map from non-negative ints to ints, without boxing.
+   */
+  static final class IntIntMap {
+    private int[] keys = IntSet.newSlots(16);
+    private int[] values = new int[16];
+    // Fibonacci hashing takes the top bits of the product, as many as the table needs
+    private int shift = Integer.numberOfLeadingZeros(keys.length - 1);
+    private int count;
+
+    /**
+     * @return the value of {@code key}, or {@link #NONE} if it is not in the map
+     */
+    int get(int key) {
+      int mask = keys.length - 1;
+      for (int slot = (key * 0x9E3779B9) >>> shift; keys[slot] != NONE; slot = (slot + 1) & mask) {
+        if (keys[slot] == key) {
+          return values[slot];
+        }
+      }
+      return NONE;
+    }
+
+    /**
+     * @return true if {@code key} was not in the map before, and is now mapped to {@code value}
+     */
+    boolean putIfAbsent(int key, int value) {
+      if ((count + 1) * 2 > keys.length) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = IntSet.newSlots(oldKeys.length * 2);
+        values = new int[oldKeys.length * 2];
+        shift = Integer.numberOfLeadingZeros(keys.length - 1);
+        count = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+          if (oldKeys[i] != NONE) {
+            putIfAbsent(oldKeys[i], oldValues[i]);
+          }
+        }
+      }
+      int mask = keys.length - 1;
+      int slot = (key * 0x9E3779B9) >>> shift;
+      while (keys[slot] != NONE) {
+        if (keys[slot] == key) {
+          return false;
+        }
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      values[slot] = value;
+      count++;
+      return true;
+    }
+  }
+}
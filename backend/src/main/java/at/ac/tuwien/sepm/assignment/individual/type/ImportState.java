@@ -0,0 +1,8 @@
+package at.ac.tuwien.sepm.assignment.individual.type;
+
+public enum ImportState {
+  QUEUED,
+  RUNNING,
+  COMPLETED,
+  FAILED
+}
@@ -0,0 +1,15 @@
+package at.ac.tuwien.sepm.assignment.individual.type;
+
+/**
+ * The formats horses can be imported from and exported to.
+ */
+public enum RecordFormat {
+  /**
+   * One JSON object per line.
+   */
+  NDJSON,
+  /**
+   * Comma separated values, with a header row naming the columns.
+   */
+  CSV
+}
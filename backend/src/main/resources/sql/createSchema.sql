@@ -16,8 +16,43 @@ CREATE TABLE IF NOT EXISTS horse
     owner_id      BIGINT,
     mother_id     BIGINT                  NULL,
     father_id     BIGINT                  NULL,
+    version       BIGINT DEFAULT 0        NOT NULL,
+    external_id   VARCHAR(255)            NULL,
 
     FOREIGN KEY (owner_id) REFERENCES owner (id) ON DELETE SET null,
     FOREIGN KEY (mother_id) REFERENCES horse (id) ON DELETE SET null,
     FOREIGN KEY (father_id) REFERENCES horse (id) ON DELETE SET null
 );
+
+-- Incremented on every update, to tell clients cheaply whether a horse changed.
+ALTER TABLE horse ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
+-- The ID of a horse in the registry it was imported from, to resolve parent references during imports.
+ALTER TABLE horse ADD COLUMN IF NOT EXISTS external_id VARCHAR(255);
+CREATE UNIQUE INDEX IF NOT EXISTS idx_horse_external_id ON horse (external_id);
+-- Imports may also refer to parents by name.
+CREATE INDEX IF NOT EXISTS idx_horse_name ON horse (name);
+
+-- The foreign key columns (owner_id, mother_id, father_id) are already backed by
+-- the indexes H2 creates for their constraints; searches additionally filter by sex and date of birth.
+CREATE INDEX IF NOT EXISTS idx_horse_sex_date_of_birth ON horse (sex, date_of_birth);
+
+-- Full-text index on the horse descriptions, maintained by the triggers H2 creates for it.
+-- FT_CREATE_INDEX fails if the index already exists, hence the guard.
+CREATE ALIAS IF NOT EXISTS FT_INIT FOR 'org.h2.fulltext.FullText.init';
+CALL FT_INIT();
+SELECT FT_CREATE_INDEX('PUBLIC', 'HORSE', 'DESCRIPTION') FROM DUAL
+WHERE NOT EXISTS (SELECT 1 FROM FT.INDEXES WHERE "SCHEMA" = 'PUBLIC' AND "TABLE" = 'HORSE');
+
+-- Optional closure of the pedigree: every horse with each of its ancestors (and itself, with depth 0),
+-- at the smallest number of generations between them. Only maintained if app.ancestor-closure.enabled is set.
+CREATE TABLE IF NOT EXISTS horse_ancestor
+(
+    descendant_id BIGINT NOT NULL,
+    ancestor_id   BIGINT NOT NULL,
+    depth         INT    NOT NULL,
+
+    PRIMARY KEY (descendant_id, ancestor_id),
+    FOREIGN KEY (descendant_id) REFERENCES horse (id) ON DELETE CASCADE,
+    FOREIGN KEY (ancestor_id) REFERENCES horse (id) ON DELETE CASCADE
+);
+CREATE INDEX IF NOT EXISTS idx_horse_ancestor_ancestor_depth ON horse_ancestor (ancestor_id, depth);
@@ -1,2 +1,4 @@
+CALL FT_DROP_INDEX('PUBLIC', 'HORSE');
+DROP TABLE horse_ancestor;
 DROP TABLE horse;
 DROP TABLE owner;
\ No newline at end of file
@@ -1,9 +1,12 @@
 package at.ac.tuwien.sepm.assignment.individual.persistence;
 
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseFamilyTreeDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseSearchDto;
 import at.ac.tuwien.sepm.assignment.individual.entity.Horse;
+import at.ac.tuwien.sepm.assignment.individual.exception.ConflictException;
 import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
+import at.ac.tuwien.sepm.assignment.individual.persistence.impl.HorseJdbcDao;
 import at.ac.tuwien.sepm.assignment.individual.type.Sex;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,6 +14,8 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.sql.SQLException;
@@ -32,6 +37,9 @@ public class HorseDaoTest {
   @Autowired
   DataGeneratorBean dataGeneratorBean;
 
+  @Autowired
+  JdbcTemplate jdbcTemplate;
+
   @BeforeEach
   void setupData() {
     try {
@@ -52,6 +60,19 @@ public class HorseDaoTest {
   }
 
 
+  @Test
+  @DisplayName("Tree and suggestion queries only select the columns of their projection")
+  public void projectionsOnlySelectNeededColumns() {
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+    horseDao.getFamilyTree(new HorseFamilyTreeDto(-10L, null, null, null, null, null, 3L));
+    horseDao.search(new HorseSearchDto("andy", null, null, Sex.MALE, null, 5, null, null, null));
+    List<String> statements = jdbcTemplate.queryForList("SELECT sql_statement FROM information_schema.query_statistics"
+        + " WHERE LOWER(sql_statement) LIKE '%from horse%' AND LOWER(sql_statement) NOT LIKE '%query_statistics%'", String.class);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    assertThat(statements).hasSize(2).noneMatch(sql -> sql.contains("*") || sql.toLowerCase().contains("description"));
+  }
+
   @Test
   @DisplayName("getAll for horses returns all stored horses")
   public void getAllReturnsAllStoredHorses() {
@@ -65,13 +86,71 @@ public class HorseDaoTest {
   @Test
   @DisplayName("getAll({}) of horses returns all horses matching the parameters")
   public void getAllWithParametersReturnsRelevantHorses() {
-    HorseSearchDto horseSearchDto = new HorseSearchDto("Gwe", "", null, Sex.FEMALE, "", 5);
+    HorseSearchDto horseSearchDto = new HorseSearchDto("Gwe", "", null, Sex.FEMALE, "", 5, null, null, null);
     List<Horse> horses = horseDao.getAll(horseSearchDto);
     assertThat(horses)
         .extracting(Horse::getId, Horse::getName)
         .contains(tuple(-7L, "Gwendy"));
   }
 
+  @Test
+  @DisplayName("getPage returns the next horses after the cursor, ordered by id")
+  public void getPageReturnsHorsesAfterCursor() {
+    List<Horse> firstPage = horseDao.getPage(null, 3);
+    assertThat(firstPage).hasSize(3);
+    assertThat(firstPage).extracting(Horse::getId).isSorted();
+
+    List<Horse> secondPage = horseDao.getPage(firstPage.get(2).getId(), 3);
+    assertThat(secondPage).hasSize(3);
+    assertThat(secondPage).extracting(Horse::getId)
+        .allMatch(id -> id > firstPage.get(2).getId());
+  }
+
+  @Test
+  @DisplayName("Lookups by parent, owner and sex with date of birth use an index instead of a table scan")
+  public void pedigreeAndSearchLookupsUseIndexes() {
+    assertThat(explain("SELECT id FROM horse WHERE mother_id = -3")).doesNotContain("tableScan");
+    assertThat(explain("SELECT id FROM horse WHERE father_id = -4")).doesNotContain("tableScan");
+    assertThat(explain("SELECT id FROM horse WHERE owner_id = -1")).doesNotContain("tableScan");
+    assertThat(explain("SELECT id FROM horse WHERE sex = 'FEMALE' AND date_of_birth <= DATE '2020-01-01'"))
+        .contains("IDX_HORSE_SEX_DATE_OF_BIRTH");
+  }
+
+  @Test
+  @DisplayName("getFamilyTree returns no horses beyond the requested number of generations")
+  public void getFamilyTreeStopsAtRequestedGenerations() {
+    List<Horse> horses = horseDao.getFamilyTree(
+        new HorseFamilyTreeDto(-7L, "Gwendy", LocalDate.of(2010, 2, 1), Sex.FEMALE, -5L, null, 2L));
+    assertThat(horses)
+        .extracting(Horse::getId)
+        .containsExactlyInAnyOrder(-7L, -5L);
+  }
+
+  @Test
+  @DisplayName("searchAmong only returns matching horses among the given candidates")
+  public void searchAmongVerifiesCandidates() {
+    HorseSearchDto horseSearchDto = new HorseSearchDto("ndy", null, null, Sex.FEMALE, null, 5, null, null, null);
+    List<Horse> horses = horseDao.searchAmong(List.of(-1L, -2L, -3L, -6L), horseSearchDto);
+    assertThat(horses)
+        .extracting(Horse::getId)
+        .containsExactly(-3L, -1L);
+  }
+
+  @Test
+  @DisplayName("getAll({}) with full-text search matches whole words, orders by relevance and applies the limit")
+  public void getAllWithFullTextSearchOrdersByRelevance() {
+    Horse created = horseDao.create(new HorseDetailDto(null, "Famy", "Famous for being famous, this one", LocalDate.of(2015, 5, 5),
+        Sex.FEMALE, null, null, null));
+    HorseSearchDto horseSearchDto = new HorseSearchDto("", "famous one", null, null, "", null, null, true, null);
+    List<Horse> horses = horseDao.getAll(horseSearchDto);
+    assertThat(horses)
+        .extracting(Horse::getId)
+        .containsExactly(created.getId(), -1L);
+    assertThat(horseDao.getAll(new HorseSearchDto("", "famous one", null, null, "", 1, null, true, null)))
+        .extracting(Horse::getId)
+        .containsExactly(created.getId());
+  }
+
   @Test
   @DisplayName("getById(0) for horse returns a NotFoundException")
   public void getByIdWithZeroReturnsNotFoundException() {
@@ -112,5 +191,60 @@ public class HorseDaoTest {
         .contains(tuple(-2L, "Candy"));
   }
 
+  @Test
+  @DisplayName("List versions tell apart lists whose IDs and versions have the same sums")
+  public void listVersionsDistinguishCompensatingChanges() {
+    jdbcTemplate.update("UPDATE horse SET version = 1 WHERE id IN (-1, -3)");
+    // both lists have the ID sum -5 and the version sum 1
+    String before = horseDao.getAllByIdVersion(List.of(-1L, -4L));
+    String after = horseDao.getAllByIdVersion(List.of(-2L, -3L));
+    assertThat(after).isNotEqualTo(before);
+    assertThat(horseDao.getAllByIdVersion(List.of(-4L, -1L))).isEqualTo(before);
+  }
+
+  private String explain(String query) {
+    return String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + query, String.class));
+  }
 
+  @Test
+  @DisplayName("The ancestor closure answers pedigree queries like the recursive queries, and stays exact on writes")
+  public void ancestorClosureMatchesRecursiveQueries() throws NotFoundException, ConflictException {
+    HorseDao closureDao = new HorseJdbcDao(jdbcTemplate, new NamedParameterJdbcTemplate(jdbcTemplate), true);
+    closureDao.rebuildAncestorClosure();
+    List<Horse> horses = horseDao.getAll();
+    for (Horse horse : horses) {
+      for (long generations = 1; generations <= 5; generations++) {
+        var parameters = new HorseFamilyTreeDto(horse.getId(), null, null, null, null, null, generations);
+        assertThat(closureDao.getFamilyTree(parameters)).extracting(Horse::getId)
+            .containsExactlyElementsOf(horseDao.getFamilyTree(parameters).stream().map(Horse::getId).toList());
+        assertThat(closureDao.getDescendants(horse.getId(), generations)).extracting(Horse::getId)
+            .containsExactlyElementsOf(horseDao.getDescendants(horse.getId(), generations).stream().map(Horse::getId).toList());
+      }
+      for (Horse other : horses) {
+        assertThat(closureDao.isAncestor(other.getId(), horse.getId()))
+            .isEqualTo(horseDao.isAncestor(other.getId(), horse.getId()));
+      }
+    }
+    assertThat(closureDao.isAncestor(-3L, -10L)).isTrue();
+    assertThat(closureDao.isAncestor(-10L, -3L)).isFalse();
+
+    // Gwendy gets Randy as father, a foal of Pandy is born, Mandy is deleted
+    HorseDetailDto randy = new HorseDetailDto(-6L, null, null, null, null, null, null, null);
+    HorseDetailDto mandy = new HorseDetailDto(-5L, null, null, null, null, null, null, null);
+    closureDao.update(new HorseDetailDto(-7L, "Gwendy", "Gwendy", LocalDate.of(2010, 10, 10), Sex.FEMALE, null, mandy, randy), null);
+    HorseDetailDto pandy = new HorseDetailDto(-10L, null, null, null, null, null, null, null);
+    final long foal = closureDao.create(new HorseDetailDto(null, "Foal", null, LocalDate.of(2023, 1, 1), Sex.FEMALE, null, null, pandy)).getId();
+    closureDao.delete(-5L);
+
+    List<List<Object>> maintained = closureRows();
+    closureDao.rebuildAncestorClosure();
+    assertThat(maintained).isEqualTo(closureRows());
+    assertThat(closureDao.isAncestor(-6L, foal)).isTrue();
+    assertThat(closureDao.isAncestor(-3L, foal)).isFalse();
+  }
+
+  private List<List<Object>> closureRows() {
+    return jdbcTemplate.query("SELECT descendant_id, ancestor_id, depth FROM horse_ancestor ORDER BY descendant_id, ancestor_id",
+        (result, rownum) -> List.of(result.getLong(1), result.getLong(2), result.getInt(3)));
+  }
 }
@@ -1,7 +1,15 @@
 package at.ac.tuwien.sepm.assignment.individual.rest;
 
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseExportDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseFamilyTreeDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseInbreedingDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseListDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidateDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidatesDto;
 import at.ac.tuwien.sepm.assignment.individual.persistence.DataGeneratorBean;
+import at.ac.tuwien.sepm.assignment.individual.service.impl.PedigreeEngine;
+import at.ac.tuwien.sepm.assignment.individual.type.Sex;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.minidev.json.JSONObject;
 import org.junit.jupiter.api.AfterEach;
@@ -9,6 +17,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.web.WebAppConfiguration;
@@ -18,14 +27,27 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
 import static org.assertj.core.api.Assertions.tuple;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ActiveProfiles({"test", "datagen"}) // enable "test" spring profile during test execution in order to pick up configuration from application-test.yml
@@ -41,6 +63,8 @@ public class HorseEndpointTest {
   ObjectMapper objectMapper;
   @Autowired
   DataGeneratorBean dataGeneratorBean;
+  @Autowired
+  PedigreeEngine pedigreeEngine;
 
   @BeforeEach
   void setupData() {
@@ -56,6 +80,7 @@ public class HorseEndpointTest {
   void cleanupData() {
     try {
       dataGeneratorBean.deleteSchema();
+      pedigreeEngine.invalidate();
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
@@ -83,6 +108,106 @@ public class HorseEndpointTest {
         .contains(tuple(-1L, "Wendy"));
   }
 
+  @Test
+  public void gettingPageOfHorsesReturnsNextCursor() throws Exception {
+    MvcResult result = mockMvc
+        .perform(get("/horses")
+            .param("pageSize", "2")
+            .accept(MediaType.APPLICATION_JSON)
+        ).andExpect(status().isOk())
+        .andReturn();
+
+    List<HorseListDto> horseResult = objectMapper.readerFor(HorseListDto.class)
+        .<HorseListDto>readValues(result.getResponse().getContentAsByteArray()).readAll();
+    assertThat(horseResult).hasSize(2);
+    assertThat(result.getResponse().getHeader("X-Next-Cursor"))
+        .isEqualTo(String.valueOf(horseResult.get(1).id()));
+
+    // the suggestion limit alone does not page
+    mockMvc.perform(get("/horses").param("limit", "2"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(10))
+        .andExpect(header().doesNotExist("X-Next-Cursor"));
+  }
+
+  @Test
+  public void streamingAllHorsesReturnsAllHorses() throws Exception {
+    MvcResult asyncResult = mockMvc
+        .perform(get("/horses/stream")
+            .accept(MediaType.APPLICATION_JSON)
+        ).andExpect(request().asyncStarted())
+        .andReturn();
+    byte[] body = mockMvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsByteArray();
+
+    List<HorseListDto> horseResult = objectMapper.readerFor(HorseListDto.class).<HorseListDto>readValues(body).readAll();
+    assertThat(horseResult.size()).isGreaterThanOrEqualTo(10);
+    assertThat(horseResult)
+        .extracting(HorseListDto::id, HorseListDto::name, HorseListDto::ownerId)
+        .contains(tuple(-1L, "Wendy", null), tuple(-2L, "Candy", -1L));
+  }
+
+  @Test
+  public void gettingDescendantsReturnsOffspringGenerationByGeneration() throws Exception {
+    byte[] body = mockMvc
+        .perform(get("/horses/{id}/descendants", -5)
+            .param("generations", "3")
+            .accept(MediaType.APPLICATION_JSON)
+        ).andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsByteArray();
+
+    List<HorseFamilyTreeDto> descendants = objectMapper.readerFor(HorseFamilyTreeDto.class)
+        .<HorseFamilyTreeDto>readValues(body).readAll();
+    assertThat(descendants).extracting(HorseFamilyTreeDto::id).containsExactly(-5L, -7L, -10L, -9L);
+
+    mockMvc.perform(get("/horses/{id}/descendants", -5).param("generations", "0"))
+        .andExpect(status().isUnprocessableEntity());
+    mockMvc.perform(get("/horses/{id}/descendants", 24).param("generations", "3"))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void gettingInbreedingOfHorseWithoutCommonAncestors() throws Exception {
+    byte[] body = mockMvc
+        .perform(get("/horses/{id}/inbreeding", -10)
+            .param("generations", "5")
+            .accept(MediaType.APPLICATION_JSON)
+        ).andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsByteArray();
+
+    HorseInbreedingDto inbreeding = objectMapper.readValue(body, HorseInbreedingDto.class);
+    assertThat(inbreeding.coefficient()).isEqualTo(0.0);
+    assertThat(inbreeding.commonAncestors()).isEmpty();
+
+    mockMvc.perform(get("/horses/{id}/inbreeding", -10).param("generations", "0"))
+        .andExpect(status().isUnprocessableEntity());
+    mockMvc.perform(get("/horses/{id}/inbreeding", 24).param("generations", "5"))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void matingCandidatesAreRankedByOffspringInbreeding() throws Exception {
+    byte[] body = mockMvc
+        .perform(post("/horses/{id}/mating-candidates", -7)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"limit\": 5}")
+            .accept(MediaType.APPLICATION_JSON)
+        ).andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsByteArray();
+
+    MatingCandidatesDto result = objectMapper.readValue(body, MatingCandidatesDto.class);
+    assertThat(result.complete()).isTrue();
+    assertThat(result.evaluated()).isEqualTo(5);
+    // Brandy is Gwendy's grandfather, Pandy her son
+    assertThat(result.candidates())
+        .extracting(MatingCandidateDto::id, MatingCandidateDto::offspringInbreeding)
+        .containsExactly(tuple(-8L, 0.0), tuple(-6L, 0.0), tuple(-2L, 0.0), tuple(-4L, 0.125), tuple(-10L, 0.25));
+
+    mockMvc.perform(post("/horses/{id}/mating-candidates", -6))
+        .andExpect(status().isUnprocessableEntity());
+  }
+
   @Test
   public void gettingNonexistentUrlReturns404() throws Exception {
     mockMvc
@@ -100,6 +225,232 @@ public class HorseEndpointTest {
     assertThat(responseBody).contains("Wendy");
   }
 
+  @Test
+  public void conditionalGetReturns304UntilHorseOrParentChanges() throws Exception {
+    String tag = mockMvc.perform(get("/horses/{id}", -5))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    assertThat(tag).isNotBlank();
+
+    MvcResult notModified = mockMvc.perform(get("/horses/{id}", -5).header(HttpHeaders.IF_NONE_MATCH, tag))
+        .andExpect(status().isNotModified())
+        .andReturn();
+    assertThat(notModified.getResponse().getContentAsString()).isEmpty();
+    assertThat(notModified.getResponse().getHeader(HttpHeaders.ETAG)).isEqualTo(tag);
+
+    HorseDetailDto father = objectMapper.readValue(mockMvc.perform(get("/horses/{id}", -4))
+        .andReturn().getResponse().getContentAsByteArray(), HorseDetailDto.class);
+    mockMvc.perform(put("/horses/{id}", -4)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(new HorseDetailDto(-4L, "Brandon", father.description(),
+                father.dateOfBirth(), father.sex(), father.owner(), null, null))))
+        .andExpect(status().isOk());
+
+    MvcResult changed = mockMvc.perform(get("/horses/{id}", -5).header(HttpHeaders.IF_NONE_MATCH, tag))
+        .andExpect(status().isOk())
+        .andReturn();
+    assertThat(changed.getResponse().getHeader(HttpHeaders.ETAG)).isNotEqualTo(tag);
+    assertThat(changed.getResponse().getContentAsString()).contains("Brandon");
+  }
+
+  @Test
+  public void updateWithOutdatedIfMatchReturns409() throws Exception {
+    MvcResult read = mockMvc.perform(get("/horses/{id}", -4))
+        .andExpect(status().isOk())
+        .andReturn();
+    String tag = read.getResponse().getHeader(HttpHeaders.ETAG);
+    HorseDetailDto brandy = objectMapper.readValue(read.getResponse().getContentAsByteArray(), HorseDetailDto.class);
+    String renamed = objectMapper.writeValueAsString(new HorseDetailDto(-4L, "Brandon", brandy.description(),
+        brandy.dateOfBirth(), brandy.sex(), brandy.owner(), null, null));
+
+    String newTag = mockMvc.perform(put("/horses/{id}", -4).header(HttpHeaders.IF_MATCH, tag)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(renamed))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    assertThat(newTag).isNotEqualTo(tag);
+
+    // a second editor still holding the first version must not overwrite the change
+    mockMvc.perform(put("/horses/{id}", -4).header(HttpHeaders.IF_MATCH, tag)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(renamed))
+        .andExpect(status().isConflict());
+    mockMvc.perform(put("/horses/{id}", -4).header(HttpHeaders.IF_MATCH, "not a tag")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(renamed))
+        .andExpect(status().isUnprocessableEntity());
+    mockMvc.perform(put("/horses/{id}", 24).header(HttpHeaders.IF_MATCH, tag)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(renamed))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void conditionalGetOfListsReturns304WhileUnchanged() throws Exception {
+    String tag = mockMvc.perform(get("/horses"))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    mockMvc.perform(get("/horses").header(HttpHeaders.IF_NONE_MATCH, tag))
+        .andExpect(status().isNotModified());
+    String treeTag = mockMvc.perform(get("/horses/{id}/familytree", -10).param("generations", "3"))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    mockMvc.perform(get("/horses/{id}/familytree", -10).param("generations", "3").header(HttpHeaders.IF_NONE_MATCH, treeTag))
+        .andExpect(status().isNotModified());
+
+    String pageTag = mockMvc.perform(get("/horses").param("pageSize", "3"))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    String idsTag = mockMvc.perform(get("/horses").param("ids", "-5,-2"))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+    mockMvc.perform(delete("/horses/-9"))
+        .andExpect(status().isNoContent());
+    mockMvc.perform(get("/horses").header(HttpHeaders.IF_NONE_MATCH, tag))
+        .andExpect(status().isOk());
+    mockMvc.perform(get("/horses").param("pageSize", "3").header(HttpHeaders.IF_NONE_MATCH, pageTag))
+        .andExpect(status().isOk());
+    // neither contains the deleted horse
+    mockMvc.perform(get("/horses").param("ids", "-5,-2").header(HttpHeaders.IF_NONE_MATCH, idsTag))
+        .andExpect(status().isNotModified());
+    mockMvc.perform(get("/horses/{id}/familytree", -10).param("generations", "3").header(HttpHeaders.IF_NONE_MATCH, treeTag))
+        .andExpect(status().isNotModified());
+
+    HorseDetailDto handy = objectMapper.readValue(mockMvc.perform(get("/horses/{id}", -8))
+        .andReturn().getResponse().getContentAsByteArray(), HorseDetailDto.class);
+    mockMvc.perform(put("/horses/{id}", -8)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(new HorseDetailDto(-8L, "Handyman", handy.description(),
+                handy.dateOfBirth(), handy.sex(), handy.owner(), handy.mother(), handy.father()))))
+        .andExpect(status().isOk());
+    mockMvc.perform(get("/horses/{id}/familytree", -10).param("generations", "3").header(HttpHeaders.IF_NONE_MATCH, treeTag))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[*].name").value(hasItem("Handyman")));
+  }
+
+  @Test
+  public void creatingBatchReturnsIdsOrReports422() throws Exception {
+    String batch = "[{\"name\": \"Mare\", \"dateOfBirth\": \"2005-01-01\", \"sex\": \"FEMALE\"},"
+        + " {\"name\": \"Foal\", \"dateOfBirth\": \"2015-01-01\", \"sex\": \"MALE\", \"motherIndex\": 0, \"fatherId\": -4}]";
+    byte[] body = mockMvc.perform(post("/horses/batch")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(batch))
+        .andExpect(status().isCreated())
+        .andReturn().getResponse().getContentAsByteArray();
+    Long[] ids = objectMapper.readValue(body, Long[].class);
+    assertThat(ids).hasSize(2);
+
+    mockMvc.perform(get("/horses/{id}", ids[1]))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.mother.id").value(ids[0]))
+        .andExpect(jsonPath("$.father.name").value("Brandy"));
+    mockMvc.perform(post("/horses/batch")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("[{\"name\": \"\", \"dateOfBirth\": \"2005-01-01\", \"sex\": \"FEMALE\"}]"))
+        .andExpect(status().isUnprocessableEntity())
+        .andExpect(jsonPath("$.errors[0]").value("Horse 0: Horse name cannot be empty"));
+  }
+
+  @Test
+  public void importingCsvCreatesHorsesAndReportsRejectedRecords() throws Exception {
+    String csv = """
+        externalId,name,description,dateOfBirth,sex,ownerId,motherName,fatherExternalId\r
+        x1,"Comma, the mare","She said ""hello""\r
+        twice",2005-01-01,female,-2,,\r
+        x2,Foal,,2015-01-01,MALE,,"Comma, the mare",\r
+        x3,Lost,,2015-01-01,MALE,,,x4\r
+        x4,Late,,not a date,MALE,,,\r
+        """;
+    MvcResult started = mockMvc.perform(post("/horses/import")
+            .contentType("text/csv")
+            .content(csv))
+        .andExpect(status().isAccepted())
+        .andExpect(jsonPath("$.id").exists())
+        .andReturn();
+    long id = objectMapper.readTree(started.getResponse().getContentAsByteArray()).get("id").asLong();
+    assertThat(started.getResponse().getHeader(HttpHeaders.LOCATION)).isEqualTo("/horses/imports/" + id);
+
+    // the import runs in the background, its progress can be polled meanwhile
+    String state = "QUEUED";
+    for (int attempt = 0; attempt < 100 && (state.equals("QUEUED") || state.equals("RUNNING")); attempt++) {
+      Thread.sleep(50);
+      byte[] status = mockMvc.perform(get("/horses/imports/{id}", id))
+          .andExpect(status().isOk())
+          .andReturn().getResponse().getContentAsByteArray();
+      state = objectMapper.readTree(status).get("state").asText();
+    }
+    mockMvc.perform(get("/horses/imports/{id}", id))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.state").value("COMPLETED"))
+        .andExpect(jsonPath("$.read").value(4))
+        .andExpect(jsonPath("$.created").value(2))
+        .andExpect(jsonPath("$.rejected").value(2))
+        .andExpect(jsonPath("$.errors[0]").value("Record 3: Father with external ID x4 does not exist"));
+    mockMvc.perform(get("/horses/imports/{id}", id + 1000))
+        .andExpect(status().isNotFound());
+    mockMvc.perform(get("/horses"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[?(@.name == 'Comma, the mare')].description").value(contains("She said \"hello\"\r\ntwice")))
+        .andExpect(jsonPath("$[?(@.name == 'Foal')].sex").value(contains("MALE")));
+  }
+
+  @Test
+  public void exportingHorsesStreamsAllRowsAndCanBeResumed() throws Exception {
+    MvcResult asyncResult = mockMvc.perform(get("/horses/export"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    byte[] body = mockMvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsByteArray();
+    assertThat(new String(body, StandardCharsets.UTF_8).split("\n"))
+        .hasSize(10)
+        .allMatch(line -> line.startsWith("{") && line.endsWith("}"));
+    List<HorseExportDto> rows = objectMapper.readerFor(HorseExportDto.class).<HorseExportDto>readValues(body).readAll();
+    assertThat(rows).extracting(HorseExportDto::id).containsExactly(-10L, -9L, -8L, -7L, -6L, -5L, -4L, -3L, -2L, -1L);
+    assertThat(rows).extracting(HorseExportDto::id, HorseExportDto::ownerId, HorseExportDto::motherId, HorseExportDto::fatherId)
+        .contains(tuple(-5L, -3L, -3L, -4L));
+
+    asyncResult = mockMvc.perform(get("/horses/export").param("format", "csv").param("after", "-3"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    String csv = mockMvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+    assertThat(csv.split("\r\n"))
+        .containsExactly("id,name,description,dateOfBirth,sex,ownerId,motherId,fatherId",
+            "-2,Candy,The sweet one!,2020-10-10,MALE,-1,,",
+            "-1,Wendy,The famous one!,2012-12-12,FEMALE,,,");
+
+    asyncResult = mockMvc.perform(get("/horses/export").header(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.8"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    var response = mockMvc.perform(asyncDispatch(asyncResult))
+        .andExpect(status().isOk())
+        .andReturn().getResponse();
+    assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+    try (var unzipped = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+      assertThat(unzipped.readAllBytes()).isEqualTo(body);
+    }
+
+    mockMvc.perform(get("/horses/export").param("format", "xml"))
+        .andExpect(status().isUnprocessableEntity());
+  }
+
+  @Test
+  public void gettingHorsesByIdsReturnsThemInRequestedOrder() throws Exception {
+    mockMvc.perform(get("/horses").param("ids", "-5,-2,24,-5"))
+        .andExpect(status().isOk())
+        .andExpect(header().exists(HttpHeaders.ETAG))
+        .andExpect(jsonPath("$[*].id").value(contains(-5, -2)))
+        .andExpect(jsonPath("$[0].owner.id").value(-3))
+        .andExpect(jsonPath("$[1].owner.lastName").value("Radcliffe"));
+
+    String tooMany = IntStream.rangeClosed(1, 101).mapToObj(String::valueOf).collect(Collectors.joining(","));
+    mockMvc.perform(get("/horses").param("ids", tooMany))
+        .andExpect(status().isUnprocessableEntity());
+  }
+
   @Test
   public void getByIdOfNotExistingHorseReturns404() throws Exception {
     mockMvc.perform(get("/horses/{id}", 24))
@@ -119,6 +470,18 @@ public class HorseEndpointTest {
         .andExpect(status().isUnprocessableEntity());
   }
 
+  @Test
+  public void createWithConflictingParentReturns422() throws Exception {
+    HorseDetailDto pandy = objectMapper.readValue(mockMvc.perform(get("/horses/{id}", -10))
+        .andReturn().getResponse().getContentAsByteArray(), HorseDetailDto.class);
+    mockMvc.perform(post("/horses")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(new HorseDetailDto(null, "Foal", null, LocalDate.of(2024, 4, 4), Sex.FEMALE,
+                null, pandy, null))))
+        .andExpect(status().isUnprocessableEntity())
+        .andExpect(jsonPath("$.errors").value(hasItem("Mother has to be female")));
+  }
+
   @Test
   public void deleteOfExistingHorseReturns204and404() throws Exception {
     mockMvc.perform(delete("/horses/-9"))
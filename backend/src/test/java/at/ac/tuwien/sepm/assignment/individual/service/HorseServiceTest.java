@@ -1,24 +1,51 @@
 package at.ac.tuwien.sepm.assignment.individual.service;
 
+import at.ac.tuwien.sepm.assignment.individual.dto.CommonAncestorDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseBatchEntryResultDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseDetailDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseFamilyTreeDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseImportStatusDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseInbreedingDto;
 import at.ac.tuwien.sepm.assignment.individual.dto.HorseListDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.HorseRelationshipDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidateSearchDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.MatingCandidatesDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.RelationshipAncestorDto;
 import at.ac.tuwien.sepm.assignment.individual.exception.ConflictException;
 import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
 import at.ac.tuwien.sepm.assignment.individual.exception.ValidationException;
+import at.ac.tuwien.sepm.assignment.individual.entity.Horse;
 import at.ac.tuwien.sepm.assignment.individual.persistence.DataGeneratorBean;
+import at.ac.tuwien.sepm.assignment.individual.persistence.HorseDao;
+import at.ac.tuwien.sepm.assignment.individual.service.impl.HorseDetailCache;
+import at.ac.tuwien.sepm.assignment.individual.service.impl.HorseImportServiceImpl;
+import at.ac.tuwien.sepm.assignment.individual.service.impl.HorseNameIndex;
 import at.ac.tuwien.sepm.assignment.individual.service.impl.HorseValidator;
+import at.ac.tuwien.sepm.assignment.individual.service.impl.Kinship;
+import at.ac.tuwien.sepm.assignment.individual.service.impl.OwnerCache;
+import at.ac.tuwien.sepm.assignment.individual.service.impl.PedigreeEngine;
+import at.ac.tuwien.sepm.assignment.individual.service.impl.PedigreeGraph;
+import at.ac.tuwien.sepm.assignment.individual.type.ImportState;
+import at.ac.tuwien.sepm.assignment.individual.type.RecordFormat;
 import at.ac.tuwien.sepm.assignment.individual.type.Sex;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.tuple;
@@ -35,6 +62,24 @@ public class HorseServiceTest {
   @Autowired
   DataGeneratorBean dataGeneratorBean;
 
+  @Autowired
+  HorseDao horseDao;
+
+  @Autowired
+  JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  HorseDetailCache detailCache;
+
+  @Autowired
+  ObjectMapper objectMapper;
+
+  @Autowired
+  PedigreeEngine pedigreeEngine;
+
+  @Autowired
+  OwnerCache ownerCache;
+
   @BeforeEach
   void setupData() {
     try {
@@ -49,6 +94,8 @@ public class HorseServiceTest {
   void cleanupData() {
     try {
       dataGeneratorBean.deleteSchema();
+      detailCache.invalidateAll();
+      pedigreeEngine.invalidate();
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
@@ -89,6 +136,370 @@ public class HorseServiceTest {
     assertAll(() -> validator.validateForCreate(horse));
   }
 
+  @Test
+  @DisplayName("Updating a horse rejects a sex change of a parent and making the horse its own ancestor")
+  public void updateRejectsSexChangeOfParentAndPedigreeCycle() {
+    HorseDetailDto mandyAsMale = new HorseDetailDto(-5L, "Mandy", null, LocalDate.of(2000, 1, 1), Sex.MALE, null, null, null);
+    ConflictException sexChange = assertThrows(ConflictException.class, () -> horseService.update(mandyAsMale, null));
+    assertThat(sexChange.errors()).containsExactly("Horse is already a parent. Cannot change sex");
+
+    HorseDetailDto pandy = new HorseDetailDto(-10L, "Pandy", null, LocalDate.of(2022, 1, 1), Sex.MALE, null, null, null);
+    HorseDetailDto brandyWithOwnGrandsonAsFather =
+        new HorseDetailDto(-4L, "Brandy", null, LocalDate.of(1977, 1, 1), Sex.MALE, null, null, pandy);
+    ConflictException cycle = assertThrows(ConflictException.class, () -> horseService.update(brandyWithOwnGrandsonAsFather, null));
+    assertThat(cycle.errors()).contains("Horse cannot be an ancestor of its own parents");
+  }
+
+  @Test
+  @DisplayName("The horse name index finds the same horses as a substring scan, and follows updates")
+  public void nameIndexMatchesSubstringScan() {
+    HorseNameIndex index = new HorseNameIndex(horseDao, true);
+    for (String query : List.of("ndy", "WEN", "and", "xyz")) {
+      long[] expected = horseDao.getAll().stream()
+          .filter(horse -> horse.getName().toUpperCase().contains(query.toUpperCase()))
+          .mapToLong(Horse::getId)
+          .sorted()
+          .toArray();
+      assertThat(index.search(query)).containsExactly(expected);
+    }
+    assertThat(index.search("nd")).isNull();
+    // wildcards are left to the LIKE condition of the persistent data store
+    assertThat(index.search("a_dy")).isNull();
+    assertThat(index.search("%ndy")).isNull();
+
+    index.put(-1L, "Brenda");
+    assertThat(index.search("wen")).doesNotContain(-1L);
+    assertThat(index.search("end")).contains(-1L);
+    index.remove(-1L);
+    assertThat(index.search("end")).doesNotContain(-1L);
+  }
+
+  @Test
+  @DisplayName("The in-memory pedigree yields the same family trees as the recursive query, in the same order, and follows deletes")
+  public void pedigreeMatchesRecursiveQuery() {
+    // Gwendy is the grandmother of the foal on both sides
+    HorseDetailDto bendy = new HorseDetailDto(-9L, null, null, null, null, null, null, null);
+    HorseDetailDto pandy = new HorseDetailDto(-10L, null, null, null, null, null, null, null);
+    horseDao.create(new HorseDetailDto(null, "Foal", null, LocalDate.of(2024, 4, 4), Sex.FEMALE, null, bendy, pandy));
+    PedigreeEngine engine = new PedigreeEngine(horseDao, true);
+    for (Horse horse : horseDao.getAll()) {
+      for (long generations = 0; generations <= 5; generations++) {
+        var parameters = new HorseFamilyTreeDto(horse.getId(), null, null, null, null, null, generations);
+        var expected = horseDao.getFamilyTree(parameters).stream()
+            .map(h -> tuple(h.getId(), h.getName(), h.getDateOfBirth(), h.getSex(), h.getMotherId(), h.getFatherId()))
+            .toList();
+        long depth = generations;
+        List<Horse> familyTree = engine.read(graph -> graph.familyTree(horse.getId(), depth));
+        assertThat(familyTree)
+            .extracting(Horse::getId, Horse::getName, Horse::getDateOfBirth, Horse::getSex, Horse::getMotherId, Horse::getFatherId)
+            .containsExactlyElementsOf(expected);
+      }
+    }
+
+    engine.remove(-5L);
+    List<Horse> orphaned = engine.read(graph -> graph.familyTree(-7L, 3));
+    assertThat(orphaned)
+        .extracting(Horse::getId)
+        .containsExactly(-7L);
+  }
+
+  @Test
+  @DisplayName("Removing a horse from the in-memory pedigree only unlinks its current children, and large pedigrees are walked completely")
+  public void pedigreeGraphTracksChildren() {
+    PedigreeGraph graph = new PedigreeGraph();
+    LocalDate born = LocalDate.of(2000, 1, 1);
+    graph.put(new Horse().setId(1L).setName("Dam").setDateOfBirth(born).setSex(Sex.FEMALE));
+    graph.put(new Horse().setId(2L).setName("Other Dam").setDateOfBirth(born).setSex(Sex.FEMALE));
+    graph.put(new Horse().setId(3L).setName("Foal").setDateOfBirth(born).setSex(Sex.MALE).setMotherId(1L));
+    graph.put(new Horse().setId(3L).setName("Foal").setDateOfBirth(born).setSex(Sex.MALE).setMotherId(2L));
+    graph.remove(1L);
+    assertThat(graph.horse(graph.index(3L)).getMotherId()).isEqualTo(2L);
+    graph.remove(2L);
+    assertThat(graph.horse(graph.index(3L)).getMotherId()).isNull();
+
+    // a complete pedigree of 17 generations, with more ancestors than the low bits of a hash can tell apart
+    PedigreeGraph large = new PedigreeGraph();
+    int horses = (1 << 17) - 1;
+    for (long id = horses - 1; id >= 0; id--) {
+      boolean hasParents = 2 * id + 2 < horses;
+      large.put(new Horse().setId(id).setName("H" + id).setDateOfBirth(born).setSex(id % 2 == 0 ? Sex.MALE : Sex.FEMALE)
+          .setMotherId(hasParents ? 2 * id + 1 : null).setFatherId(hasParents ? 2 * id + 2 : null));
+    }
+    assertThat(large.familyTree(0L, 17)).hasSize(horses);
+  }
+
+  @Test
+  @DisplayName("The coefficient of inbreeding of a full-sibling mating is 1/4, and only counts within the given generations")
+  public void inbreedingOfFullSiblingMating() {
+    PedigreeGraph graph = new PedigreeGraph();
+    LocalDate born = LocalDate.of(2000, 1, 1);
+    graph.put(new Horse().setId(1L).setName("Dam").setDateOfBirth(born).setSex(Sex.FEMALE));
+    graph.put(new Horse().setId(2L).setName("Sire").setDateOfBirth(born).setSex(Sex.MALE));
+    graph.put(new Horse().setId(3L).setName("Daughter").setDateOfBirth(born).setSex(Sex.FEMALE).setMotherId(1L).setFatherId(2L));
+    graph.put(new Horse().setId(4L).setName("Son").setDateOfBirth(born).setSex(Sex.MALE).setMotherId(1L).setFatherId(2L));
+    graph.put(new Horse().setId(5L).setName("Foal").setDateOfBirth(born).setSex(Sex.FEMALE).setMotherId(3L).setFatherId(4L));
+    graph.put(new Horse().setId(6L).setName("Backcross").setDateOfBirth(born).setSex(Sex.MALE).setMotherId(5L).setFatherId(2L));
+
+    Kinship kinship = graph.kinship();
+    assertAll(
+        () -> assertThat(kinship.inbreeding(graph.index(3L), 10)).isEqualTo(0.0),
+        () -> assertThat(kinship.inbreeding(graph.index(5L), 2)).isEqualTo(0.0),
+        () -> assertThat(kinship.inbreeding(graph.index(5L), 3)).isEqualTo(0.25),
+        () -> assertThat(kinship.inbreeding(graph.index(5L), 10)).isEqualTo(0.25),
+        // f(Foal, Sire) = (f(Daughter, Sire) + f(Son, Sire)) / 2 = (1/4 + 1/4) / 2
+        () -> assertThat(kinship.inbreeding(graph.index(6L), 10)).isEqualTo(0.25),
+        () -> assertThat(kinship.offspringInbreeding(graph.index(3L), graph.index(4L), 10)).isEqualTo(0.25)
+    );
+  }
+
+  @Test
+  @DisplayName("Pedigree analyses share one in-memory pedigree, which follows the changes made through the service")
+  public void pedigreeAnalysesReuseInMemoryPedigree() throws NotFoundException, ValidationException, ConflictException {
+    horseService.getInbreeding(-10L, 5);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+    HorseInbreedingDto inbreeding = horseService.getInbreeding(-10L, 5);
+    Long queries = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(execution_count), 0) FROM information_schema.query_statistics"
+        + " WHERE LOWER(sql_statement) LIKE '%horse%' AND LOWER(sql_statement) NOT LIKE '%query_statistics%'", Long.class);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    assertThat(queries).isZero();
+    assertThat(inbreeding.coefficient()).isEqualTo(0.0);
+
+    HorseDetailDto bendy = horseService.getById(-9L);
+    HorseDetailDto pandy = horseService.getById(-10L);
+    HorseDetailDto foal = horseService.create(new HorseDetailDto(null, "Foal", null, LocalDate.of(2024, 4, 4), Sex.FEMALE,
+        null, bendy, pandy));
+    assertThat(horseService.getInbreeding(foal.id(), 5).commonAncestors())
+        .extracting(CommonAncestorDto::id)
+        .contains(-7L);
+  }
+
+  @Test
+  @DisplayName("Mating candidate searches reuse the in-memory pedigree and its kinship memo")
+  public void matingCandidatesReuseKinshipMemo() throws NotFoundException, ValidationException {
+    var parameters = new MatingCandidateSearchDto(5, null, null);
+    final MatingCandidatesDto first = horseService.getMatingCandidates(-7L, parameters);
+    final Kinship kinship = pedigreeEngine.read(PedigreeGraph::kinship);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+    final MatingCandidatesDto second = horseService.getMatingCandidates(-7L, parameters);
+    Long queries = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(execution_count), 0) FROM information_schema.query_statistics"
+        + " WHERE LOWER(sql_statement) LIKE '%horse%' AND LOWER(sql_statement) NOT LIKE '%query_statistics%'", Long.class);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+
+    assertThat(queries).isZero();
+    assertThat(pedigreeEngine.read(PedigreeGraph::kinship)).isSameAs(kinship);
+    assertThat(second).isEqualTo(first);
+  }
+
+  @Test
+  @DisplayName("The relationship of two horses is given by their closest common ancestors")
+  public void relationshipFindsClosestCommonAncestors() throws NotFoundException {
+    HorseRelationshipDto halfSiblings = horseService.getRelationship(-9L, -10L);
+    assertThat(halfSiblings.generations()).isEqualTo(2);
+    assertThat(halfSiblings.closestCommonAncestors())
+        .extracting(RelationshipAncestorDto::id, RelationshipAncestorDto::distance, RelationshipAncestorDto::otherDistance)
+        .containsExactly(tuple(-7L, 1, 1));
+
+    HorseRelationshipDto grandmother = horseService.getRelationship(-10L, -5L);
+    assertThat(grandmother.generations()).isEqualTo(2);
+    assertThat(grandmother.closestCommonAncestors())
+        .extracting(RelationshipAncestorDto::id, RelationshipAncestorDto::distance, RelationshipAncestorDto::otherDistance)
+        .containsExactly(tuple(-5L, 2, 0));
+
+    HorseRelationshipDto unrelated = horseService.getRelationship(-1L, -2L);
+    assertThat(unrelated.generations()).isNull();
+    assertThat(unrelated.closestCommonAncestors()).isEmpty();
+
+    assertThrows(NotFoundException.class, () -> horseService.getRelationship(-1L, 24L));
+    assertThrows(NotFoundException.class, () -> horseService.getRelationship(24L, -1L));
+
+    // stored bypassing the service, so only the second horse is missing from the pedigree
+    jdbcTemplate.update("INSERT INTO horse (id, name, date_of_birth, sex, mother_id) VALUES (-11, 'Sendy', '2016-06-06', 'FEMALE', -7)");
+    HorseRelationshipDto addedSibling = horseService.getRelationship(-9L, -11L);
+    assertThat(addedSibling.closestCommonAncestors())
+        .extracting(RelationshipAncestorDto::id, RelationshipAncestorDto::distance, RelationshipAncestorDto::otherDistance)
+        .containsExactly(tuple(-7L, 1, 1));
+  }
+
+  @Test
+  @DisplayName("getById fetches the horse, its parents and all their owners with a single query")
+  public void getByIdUsesSingleQuery() throws NotFoundException {
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+    HorseDetailDto horse = horseService.getById(-5L);
+    Long queries = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(execution_count), 0) FROM information_schema.query_statistics"
+        + " WHERE LOWER(sql_statement) LIKE '%horse%' AND LOWER(sql_statement) NOT LIKE '%query_statistics%'", Long.class);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+
+    assertThat(queries).isEqualTo(1L);
+    assertThat(horse.owner().id()).isEqualTo(-3L);
+    assertThat(horse.mother().id()).isEqualTo(-3L);
+    assertThat(horse.mother().owner()).isNull();
+    assertThat(horse.father().id()).isEqualTo(-4L);
+    assertThat(horse.father().owner().id()).isEqualTo(-2L);
+  }
+
+  @Test
+  @DisplayName("getById serves cached details, which are invalidated by changes of the horse's parents")
+  public void getByIdCachesDetailsUntilParentChanges() throws NotFoundException, ValidationException, ConflictException {
+    horseService.getById(-5L);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+    HorseDetailDto cached = horseService.getById(-5L);
+    Long queries = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(execution_count), 0) FROM information_schema.query_statistics"
+        + " WHERE LOWER(sql_statement) LIKE '%horse%' AND LOWER(sql_statement) NOT LIKE '%query_statistics%'", Long.class);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    assertThat(queries).isZero();
+    assertThat(cached.father().name()).isEqualTo("Brandy");
+
+    HorseDetailDto brandy = horseService.getById(-4L);
+    horseService.update(new HorseDetailDto(-4L, "Brandon", brandy.description(), brandy.dateOfBirth(), brandy.sex(),
+        brandy.owner(), null, null), null);
+    assertThat(horseService.getById(-5L).father().name()).isEqualTo("Brandon");
+
+    horseService.delete(-3L);
+    assertThat(horseService.getById(-5L).mother()).isNull();
+  }
+
+  @Test
+  @DisplayName("A batch of horses is created with parents from the batch, in any order")
+  public void createBatchResolvesParentsWithinBatch() throws ValidationException, ConflictException, NotFoundException {
+    List<HorseBatchEntryDto> batch = new ArrayList<>();
+    // the foals come first and refer to their mothers further down in the batch
+    for (int i = 0; i < 2000; i++) {
+      batch.add(new HorseBatchEntryDto("Foal " + i, null, LocalDate.of(2015, 1, 1), Sex.FEMALE, -2L, null, -4L, 2000 + i % 1000, null, null));
+    }
+    for (int i = 0; i < 1000; i++) {
+      batch.add(new HorseBatchEntryDto("Mare " + i, "imported", LocalDate.of(2005, 1, 1), Sex.FEMALE, null, null, null, null, null, null));
+    }
+
+    List<Long> ids = horseService.createAll(batch);
+
+    assertThat(ids).hasSize(3000).doesNotContainNull().doesNotHaveDuplicates();
+    assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM horse", Long.class)).isEqualTo(3010L);
+    Horse foal = horseDao.getById(ids.get(1234));
+    assertThat(foal.getName()).isEqualTo("Foal 1234");
+    assertThat(foal.getMotherId()).isEqualTo(ids.get(2234));
+    assertThat(foal.getFatherId()).isEqualTo(-4L);
+    assertThat(foal.getOwnerId()).isEqualTo(-2L);
+  }
+
+  @Test
+  @DisplayName("A batch costs a single query for all referenced parents and a single one for all referenced owners")
+  public void createBatchLoadsReferencesTogether() {
+    ownerCache.invalidateAll();
+    List<HorseBatchEntryDto> batch = IntStream.range(0, 50)
+        .mapToObj(i -> new HorseBatchEntryDto("Foal " + i, null, LocalDate.of(2015, 1, 1), Sex.MALE, i % 2 == 0 ? -2L : 4711L,
+            i % 3 == 0 ? -5L : -7L, -4L, null, null, null))
+        .toList();
+
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+    ConflictException e = assertThrows(ConflictException.class, () -> horseService.createAll(batch));
+    List<String> statements = jdbcTemplate.queryForList("SELECT sql_statement FROM information_schema.query_statistics"
+        + " WHERE LOWER(sql_statement) LIKE '%from horse%' OR LOWER(sql_statement) LIKE '%from owner%'", String.class);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+
+    assertThat(e.errors()).hasSize(25).allMatch(error -> error.endsWith("Owner with ID 4711 does not exist"));
+    assertThat(statements).hasSize(2);
+  }
+
+  @Test
+  @DisplayName("A batch of horses is rejected as a whole, with the errors of every horse")
+  public void createBatchReportsErrorsPerHorse() {
+    List<HorseBatchEntryDto> batch = List.of(
+        new HorseBatchEntryDto("", null, LocalDate.of(2015, 1, 1), Sex.FEMALE, null, null, null, null, null, null),
+        new HorseBatchEntryDto("Lost", null, LocalDate.of(2015, 1, 1), Sex.FEMALE, 4711L, 4711L, null, 5, null, null),
+        new HorseBatchEntryDto("Egg", null, LocalDate.of(2015, 1, 1), Sex.FEMALE, null, null, null, 3, null, null),
+        new HorseBatchEntryDto("Hen", null, LocalDate.of(2014, 1, 1), Sex.FEMALE, null, null, null, 2, null, null),
+        new HorseBatchEntryDto("Valid", null, LocalDate.of(2015, 1, 1), Sex.MALE, null, null, null, null, null, null));
+
+    ValidationException e = assertThrows(ValidationException.class, () -> horseService.createAll(batch));
+
+    assertThat(e.errors()).contains(
+        "Horse 0: Horse name cannot be empty",
+        "Horse 1: Mother must be given either by ID or by index, not both",
+        "Horse 1: Owner with ID 4711 does not exist",
+        "Horse 2: Horse cannot be an ancestor of itself",
+        "Horse 3: Horse mother cannot be younger than the horse itself",
+        "Horse 3: Horse cannot be an ancestor of itself");
+    assertThat(e.errors()).noneMatch(error -> error.startsWith("Horse 4"));
+    assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM horse", Long.class)).isEqualTo(10L);
+  }
+
+  @Test
+  @DisplayName("Of a partially valid batch only the valid horses are created, descendants of rejected ones are rejected too")
+  public void createAllValidRejectsDescendantsOfInvalidHorses() {
+    List<HorseBatchEntryDto> batch = List.of(
+        new HorseBatchEntryDto("", null, LocalDate.of(2005, 1, 1), Sex.FEMALE, null, null, null, null, null, null),
+        new HorseBatchEntryDto("Foal", null, LocalDate.of(2015, 1, 1), Sex.MALE, null, null, -4L, 0, null, null),
+        new HorseBatchEntryDto("Valid", null, LocalDate.of(2015, 1, 1), Sex.MALE, -2L, -5L, null, null, null, null));
+
+    List<HorseBatchEntryResultDto> results = horseService.createAllValid(batch);
+
+    assertThat(results).extracting(HorseBatchEntryResultDto::errors).containsExactly(
+        List.of("Horse name cannot be empty"), List.of("Mother is rejected"), List.of());
+    assertThat(results.get(0).id()).isNull();
+    assertThat(results.get(1).id()).isNull();
+    assertThat(horseService.allHorses().filter(horse -> horse.id().equals(results.get(2).id())).findFirst().orElseThrow().name())
+        .isEqualTo("Valid");
+    assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM horse", Long.class)).isEqualTo(11L);
+  }
+
+  @Test
+  @DisplayName("An import creates the valid records chunk by chunk, and reports the rejected ones")
+  public void importResolvesReferencesAcrossChunks() throws NotFoundException {
+    var importService = new HorseImportServiceImpl(horseDao, horseService, objectMapper, 2);
+    String records = """
+        {"externalId": "m", "name": "Mare", "dateOfBirth": "2005-01-01", "sex": "FEMALE", "ownerId": -2}
+        {"externalId": "s", "name": "Stallion", "dateOfBirth": "2004-01-01", "sex": "MALE", "fatherName": "Brandy"}
+
+        {"name": "Foal", "dateOfBirth": "2015-01-01", "sex": "MALE", "motherExternalId": "m", "fatherExternalId": "s"}
+        {"name": "Orphan", "dateOfBirth": "2015-01-01", "sex": "MALE", "motherExternalId": "missing"}
+        {"name": "Broken",
+        {"externalId": "m", "name": "Again", "dateOfBirth": "2005-01-01", "sex": "FEMALE"}
+        """;
+
+    HorseImportStatusDto status = importService.importHorses(RecordFormat.NDJSON,
+        new ByteArrayInputStream(records.getBytes(StandardCharsets.UTF_8)));
+
+    assertThat(status.state()).isEqualTo(ImportState.COMPLETED);
+    assertThat(status.read()).isEqualTo(6);
+    assertThat(status.created()).isEqualTo(3);
+    assertThat(status.rejected()).isEqualTo(3);
+    assertThat(status.errors()).hasSize(3);
+    assertThat(status.errors().get(0)).isEqualTo("Record 4: Mother with external ID missing does not exist");
+    assertThat(status.errors().get(1)).startsWith("Record 5: Malformed record");
+    assertThat(status.errors().get(2)).isEqualTo("Record 6: External ID m is already used");
+    assertThat(importService.getImport(status.id())).isEqualTo(status);
+
+    HorseListDto foal = horseService.allHorses().filter(horse -> horse.name().equals("Foal")).findFirst().orElseThrow();
+    HorseDetailDto detail = horseService.getById(foal.id());
+    assertThat(detail.mother().name()).isEqualTo("Mare");
+    assertThat(detail.father().name()).isEqualTo("Stallion");
+    assertThat(horseService.getById(detail.father().id()).father().id()).isEqualTo(-4L);
+  }
+
+  @Test
+  @DisplayName("Large lists join the owners in the database, small ones look them up, with the same result")
+  public void listsJoinOwnersDependingOnSize() throws ValidationException {
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+    List<HorseListDto> joined = horseService.horsePage(null, 1000).toList();
+    List<String> statements = jdbcTemplate.queryForList("SELECT sql_statement FROM information_schema.query_statistics"
+        + " WHERE LOWER(sql_statement) LIKE '%owner%' AND LOWER(sql_statement) NOT LIKE '%query_statistics%'", String.class);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+
+    assertThat(statements).singleElement().asString().containsIgnoringCase("LEFT JOIN owner");
+    assertThat(joined).hasSize(10);
+    assertThat(joined)
+        .extracting(HorseListDto::id, horse -> horse.owner() == null ? null : horse.owner().email())
+        .contains(tuple(-4L, "ziggy.ziglar@example.com"), tuple(-1L, null));
+    assertThat(horseService.horsePage(null, 5).toList()).isEqualTo(joined.subList(0, 5));
+    assertThat(horseService.allHorses().toList()).isEqualTo(joined);
+  }
+
   @Test
   @DisplayName("Creating a horse with valid data throws no exception")
   public void createValidHorse() throws ValidationException, ConflictException, NotFoundException {
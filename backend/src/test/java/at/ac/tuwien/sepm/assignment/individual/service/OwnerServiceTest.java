@@ -0,0 +1,132 @@
+package at.ac.tuwien.sepm.assignment.individual.service;
+
+import at.ac.tuwien.sepm.assignment.individual.dto.OwnerCreateDto;
+import at.ac.tuwien.sepm.assignment.individual.dto.OwnerDto;
+import at.ac.tuwien.sepm.assignment.individual.exception.NotFoundException;
+import at.ac.tuwien.sepm.assignment.individual.exception.ValidationException;
+import at.ac.tuwien.sepm.assignment.individual.persistence.DataGeneratorBean;
+import at.ac.tuwien.sepm.assignment.individual.service.impl.OwnerCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@ActiveProfiles({"test", "datagen"}) // enable "test" spring profile during test execution in order to pick up configuration from application-test.yml
+@SpringBootTest
+public class OwnerServiceTest {
+
+  @Autowired
+  OwnerService ownerService;
+
+  @Autowired
+  DataGeneratorBean dataGeneratorBean;
+
+  @Autowired
+  JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  OwnerCache ownerCache;
+
+  @BeforeEach
+  void setupData() {
+    try {
+      dataGeneratorBean.createSchema();
+      dataGeneratorBean.generateData();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @AfterEach
+  void cleanupData() {
+    try {
+      dataGeneratorBean.deleteSchema();
+      ownerCache.invalidateAll();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Test
+  @DisplayName("Creating an owner is a single insert, however many owners exist, and duplicate emails are rejected")
+  public void createOwnerDoesNotScanAllOwners() throws ValidationException {
+    List<Object[]> bulk = IntStream.range(0, 20_000)
+        .mapToObj(i -> new Object[] {"Bulk", "Owner " + i, "bulk.owner" + i + "@example.com"})
+        .toList();
+    jdbcTemplate.batchUpdate("INSERT INTO owner (first_name, last_name, email) VALUES (?, ?, ?)", bulk);
+
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+    OwnerDto created = ownerService.create(new OwnerCreateDto("New", "Owner", "new.owner@example.com"));
+    List<String> statements = jdbcTemplate.queryForList("SELECT sql_statement FROM information_schema.query_statistics"
+        + " WHERE LOWER(sql_statement) LIKE '%owner%' AND LOWER(sql_statement) NOT LIKE '%query_statistics%'", String.class);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+
+    assertThat(created.id()).isNotNull();
+    assertThat(statements).singleElement().asString().startsWithIgnoringCase("INSERT");
+
+    ValidationException duplicate = assertThrows(ValidationException.class,
+        () -> ownerService.create(new OwnerCreateDto("Other", "Owner", "bulk.owner42@example.com")));
+    assertThat(duplicate.errors()).containsExactly("Email is already used. Please provide another email");
+  }
+
+  @Test
+  @DisplayName("Owners are served from the cache once loaded")
+  public void getOwnerUsesCache() throws NotFoundException {
+    ownerCache.invalidateAll();
+    long misses = ownerCache.getMisses();
+    final long hits = ownerCache.getHits();
+    final OwnerDto loaded = ownerService.getById(-2);
+    assertThat(ownerCache.getMisses()).isEqualTo(misses + 1);
+
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+    assertThat(ownerService.getById(-2)).isEqualTo(loaded);
+    assertThat(ownerService.getAllById(List.of(-2L))).containsOnlyKeys(-2L);
+    Long ownerQueries = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.query_statistics"
+        + " WHERE LOWER(sql_statement) LIKE '%from owner%'", Long.class);
+    jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+    assertThat(ownerQueries).isZero();
+    assertThat(ownerCache.getHits()).isEqualTo(hits + 2);
+  }
+
+  @Test
+  @DisplayName("The owner cache evicts the least recently used owner once full, and counts expired owners apart from that")
+  public void ownerCacheIsBounded() throws InterruptedException {
+    OwnerCache cache = new OwnerCache(true, 2, Duration.ofMinutes(5));
+    cache.put(new OwnerDto(1, "A", "A", null));
+    cache.put(new OwnerDto(2, "B", "B", null));
+    assertThat(cache.get(1)).isNotNull();
+    cache.put(new OwnerDto(3, "C", "C", null));
+
+    assertThat(cache.get(2)).isNull();
+    assertThat(cache.get(1)).isNotNull();
+    assertThat(cache.getEvictions()).isEqualTo(1);
+    cache.invalidate(1);
+    assertThat(cache.get(1)).isNull();
+    assertThat(cache.getSize()).isEqualTo(1);
+
+    OwnerCache expiring = new OwnerCache(true, 2, Duration.ZERO);
+    expiring.put(new OwnerDto(1, "A", "A", null));
+    Thread.sleep(1);
+    assertThat(expiring.get(1)).isNull();
+    assertThat(expiring.getExpirations()).isEqualTo(1);
+    assertThat(expiring.getEvictions()).isZero();
+
+    OwnerCache disabled = new OwnerCache(false, 2, Duration.ofMinutes(5));
+    disabled.put(new OwnerDto(1, "A", "A", null));
+    assertThat(disabled.get(1)).isNull();
+  }
+}